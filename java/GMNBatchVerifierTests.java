@@ -0,0 +1,115 @@
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/*
+ * These are unit tests for the asynchronous micro-batching verifier.
+ *
+ */
+import org.gs1.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+public class GMNBatchVerifierTests
+{
+
+        @Test
+        public void verifyAsync_UsingExampleFromGenSpecs() throws Exception
+        {
+            try (GMNBatchVerifier verifier = new GMNBatchVerifier())
+            {
+                assertTrue(verifier.verifyAsync("1987654Ad4X4bL5ttr2310c2K").get());
+                assertFalse(verifier.verifyAsync("1987654Ad4X4bL5ttr2310cXK").get());
+            }
+        }
+
+        @Test
+        public void verifyAsync_InvalidFormatCompletesExceptionally() throws Exception
+        {
+            try (GMNBatchVerifier verifier = new GMNBatchVerifier())
+            {
+                verifier.verifyAsync("12345XX").get();
+                fail();
+            }
+            catch (ExecutionException e)
+            {
+                assertTrue(e.getCause() instanceof GS1Exception);
+            }
+        }
+
+        @Test
+        public void verifyAsync_ConcurrentRequestsAreBatched() throws Exception
+        {
+            List<CompletableFuture<Boolean>> futures = new ArrayList<>();
+            try (GMNBatchVerifier verifier = new GMNBatchVerifier(64, 1000))
+            {
+                for (int i = 0; i < 1000; i++)
+                    futures.add(verifier.verifyAsync(i % 2 == 0 ? "12345ANJ" : "12345ANX"));
+                for (int i = 0; i < 1000; i++)
+                    assertEquals(i % 2 == 0, futures.get(i).get());
+
+                GMNBatchVerifier.Statistics stats = verifier.getStatistics();
+                assertEquals(1000, stats.getRequests());
+                assertTrue(stats.getLargestBatch() <= 64);
+                assertTrue(stats.getBatches() < 1000);
+            }
+        }
+
+        @Test(expected = IllegalStateException.class)
+        public void verifyAsync_AfterClose() throws Exception
+        {
+            GMNBatchVerifier verifier = new GMNBatchVerifier();
+            verifier.close();
+            verifier.verifyAsync("12345ANJ");
+        }
+
+        @Test
+        public void verifyAsync_NullIsRejected() throws Exception
+        {
+            try (GMNBatchVerifier verifier = new GMNBatchVerifier())
+            {
+                try
+                {
+                    verifier.verifyAsync(null);
+                    fail("Null was accepted");
+                }
+                catch (NullPointerException e)
+                {
+                    // Expected
+                }
+                assertTrue(verifier.verifyAsync("1987654Ad4X4bL5ttr2310c2K").get(5, TimeUnit.SECONDS));
+            }
+        }
+
+        @Test
+        public void close_FromDependentAction() throws Exception
+        {
+            GMNBatchVerifier verifier = new GMNBatchVerifier();
+            CompletableFuture<Boolean> closedBy = verifier.verifyAsync("1987654Ad4X4bL5ttr2310c2K")
+                .thenApply(valid -> { verifier.close(); return valid; });
+            assertTrue(closedBy.get(5, TimeUnit.SECONDS));
+            verifier.close();
+            try
+            {
+                verifier.verifyAsync("12345ANJ");
+                fail("Accepted after close");
+            }
+            catch (IllegalStateException e)
+            {
+                // Expected
+            }
+        }
+
+        @Test(expected = IllegalArgumentException.class)
+        public void setMaxBatchSize_Zero() throws Exception
+        {
+            try (GMNBatchVerifier verifier = new GMNBatchVerifier())
+            {
+                verifier.setMaxBatchSize(0);
+            }
+        }
+
+}
@@ -0,0 +1,122 @@
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/*
+ * These are unit tests for the synthetic corpus generator.
+ *
+ */
+import org.gs1.*;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+public class GMNCorpusGeneratorTests
+{
+
+        private static GMNCorpusGenerator allKinds(long seed)
+        {
+            GMNCorpusGenerator g = new GMNCorpusGenerator(seed);
+            for (GMNStatus kind : GMNCorpusGenerator.KINDS)
+                g.setErrorWeight(kind, 1);
+            g.setCharsetMix(1, 1, 1, 1);
+            return g;
+        }
+
+        @Test
+        public void next_MatchesExpectedOutcome() throws Exception
+        {
+            GMNCorpusGenerator g = allKinds(42);
+            int[] seen = new int[GMNStatus.values().length];
+            for (int i = 0; i < 20000; i++)
+            {
+                String gmn = g.next();
+                GMNStatus kind = g.lastStatus();
+                seen[kind.ordinal()]++;
+                assertEquals(gmn, kind, GMN.status(gmn));
+                try
+                {
+                    boolean valid = GMN.verifyCheckCharacters(gmn);
+                    assertTrue(gmn, kind == (valid ? GMNStatus.VALID : GMNStatus.INCORRECT_CHECK));
+                }
+                catch (GS1Exception e)
+                {
+                    assertNotEquals(gmn, GMNStatus.VALID, kind);
+                    assertNotEquals(gmn, GMNStatus.INCORRECT_CHECK, kind);
+                }
+            }
+            for (GMNStatus kind : GMNCorpusGenerator.KINDS)
+                assertTrue(seen[kind.ordinal()] > 0);
+        }
+
+        @Test
+        public void next_ReproducibleFromSeed() throws Exception
+        {
+            GMNCorpusGenerator a = allKinds(7), b = allKinds(7);
+            for (int i = 0; i < 1000; i++)
+                assertEquals(a.next(), b.next());
+        }
+
+        @Test
+        public void next_RespectsGcpLengthAndModelLength() throws Exception
+        {
+            GMNCorpusGenerator g = new GMNCorpusGenerator(1);
+            g.setGcpLengthWeights(0, 0, 0, 0, 0, 0, 0, 1);
+            g.setModelLengthRange(3, 3);
+            for (int i = 0; i < 100; i++)
+            {
+                String gmn = g.next();
+                assertEquals(17, gmn.length());
+                assertTrue(GMN.verifyCheckCharactersGcpModelChecks(gmn.substring(0, 12), gmn.substring(12, 15), gmn.substring(15)));
+            }
+        }
+
+        @Test
+        public void writeFiles_IndependentOfThreadCount() throws Exception
+        {
+            Path dir = Files.createTempDirectory("gmn-corpus");
+            List<Path> one = allKinds(3).writeFiles(dir, "a", 4, 500, 1);
+            List<Path> many = allKinds(3).writeFiles(dir, "b", 4, 500, 4);
+            for (int i = 0; i < 4; i++)
+            {
+                assertArrayEquals(Files.readAllBytes(one.get(i)), Files.readAllBytes(many.get(i)));
+                Files.delete(one.get(i));
+                Files.delete(many.get(i));
+            }
+            Files.delete(dir);
+        }
+
+        @Test
+        public void writeFiles_RejectsNoFilesOrThreads() throws Exception
+        {
+            Path dir = Paths.get(".");
+            for (int[] args : new int[][] { { 0, 1 }, { 1, 0 }, { -1, 4 } })
+            {
+                try
+                {
+                    allKinds(3).writeFiles(dir, "a", args[0], 500, args[1]);
+                    fail();
+                }
+                catch (IllegalArgumentException e)
+                {
+                    // Expected
+                }
+            }
+        }
+
+        @Test
+        public void write_Labelled() throws Exception
+        {
+            GMNCorpusGenerator g = allKinds(5);
+            g.setLabelled(true);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            g.write(out, 100);
+            String[] lines = out.toString("US-ASCII").split("\n");
+            assertEquals(100, lines.length);
+            for (String line : lines)
+                assertTrue(line.matches(".*\t[0-6]"));
+        }
+
+}
@@ -0,0 +1,177 @@
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/*
+ * These are unit tests for the CSV/TSV processor.
+ *
+ */
+import org.gs1.*;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+public class GMNCsvProcessorTests
+{
+
+        private static String run(GMNCsvProcessor p, String input, Map<GMNStatus, Long>[] counts) throws Exception
+        {
+            Path in = Files.createTempFile("gmn", ".csv");
+            Path out = Files.createTempFile("gmn", ".out");
+            try
+            {
+                Files.write(in, input.getBytes(StandardCharsets.UTF_8));
+                Map<GMNStatus, Long> c = p.process(in, out);
+                if (counts != null)
+                    counts[0] = c;
+                return new String(Files.readAllBytes(out), StandardCharsets.UTF_8);
+            }
+            finally
+            {
+                Files.delete(in);
+                Files.delete(out);
+            }
+        }
+
+        @Test
+        public void process_VerifiesChecks() throws Exception
+        {
+            @SuppressWarnings("unchecked")
+            Map<GMNStatus, Long>[] counts = new Map[1];
+            String out = run(new GMNCsvProcessor(),
+                             "1987654,Ad4X4bL5ttr2310c,2K\n" +
+                             "1987654,Ad4X4bL5ttr2310c,2J\n" +
+                             "1987654,Ad4X4bL5ttr2310c,\n" +
+                             "1987654,Ad4X4bL5ttr2310c\n" +
+                             "1987,Ad4X4bL5ttr2310c,2K\n" +
+                             "1987654,Ad4X4bL5ttr2310c,2\n" +
+                             "1987654,Ad4X4bL5ttr2310c,2%\n", counts);
+            assertEquals("1987654,Ad4X4bL5ttr2310c,2K,2K,0\n" +
+                         "1987654,Ad4X4bL5ttr2310c,2J,2K,1\n" +
+                         "1987654,Ad4X4bL5ttr2310c,,2K,10\n" +
+                         "1987654,Ad4X4bL5ttr2310c,2K,0\n" +
+                         "1987,Ad4X4bL5ttr2310c,2K,,7\n" +
+                         "1987654,Ad4X4bL5ttr2310c,2,2K,10\n" +
+                         "1987654,Ad4X4bL5ttr2310c,2%,2K,6\n", out);
+            assertEquals(2L, (long) counts[0].get(GMNStatus.VALID));
+            assertEquals(1L, (long) counts[0].get(GMNStatus.INCORRECT_CHECK));
+            assertEquals(1L, (long) counts[0].get(GMNStatus.GCP_TOO_SHORT));
+            assertEquals(2L, (long) counts[0].get(GMNStatus.CHECK_WRONG_LENGTH));
+        }
+
+        @Test
+        public void process_QuotedFieldsAndHeader() throws Exception
+        {
+            GMNCsvProcessor p = new GMNCsvProcessor();
+            p.setHeader(true);
+            p.setColumns(1, 2, -1);
+            String out = run(p,
+                             "name,gcp,model\r\n" +
+                             "\"Widget, large\",\"1987654\",\"Ad4X4bL5ttr2310c\"\r\n" +
+                             "\"Multi\nline\",1987654,\"Ad4X4bL5\"\"ttr\"\r\n" +
+                             "\r\n" +
+                             "x,1987654,\"\"\r\n", null);
+            assertEquals("name,gcp,model,checks,status\n" +
+                         "\"Widget, large\",\"1987654\",\"Ad4X4bL5ttr2310c\",2K,0\n" +
+                         "\"Multi\nline\",1987654,\"Ad4X4bL5\"\"ttr\"," + completedChecks("1987654Ad4X4bL5\"ttr") + ",0\n" +
+                         "\n" +
+                         "x,1987654,\"\",,9\n", out);
+        }
+
+        @Test
+        public void process_Tsv() throws Exception
+        {
+            GMNCsvProcessor p = new GMNCsvProcessor();
+            p.setDelimiter('\t');
+            String out = run(p, "1987654\tAd4X4bL5ttr2310c\t2K\n12345\tA\tBZ", null);
+            assertEquals("1987654\tAd4X4bL5ttr2310c\t2K\t2K\t0\n12345\tA\tBZ\t" + completedChecks("12345A") + "\t" +
+                         (GMN.verifyCheckCharacters("12345ABZ") ? "0" : "1") + "\n", out);
+        }
+
+        @Test
+        public void process_QuoteWithinUnquotedFieldIsLiteral() throws Exception
+        {
+            // The header and chunks must still end at the following line terminators
+            StringBuilder in = new StringBuilder("gcp,model\"s,checks\n1987654,A\"B\n");
+            StringBuilder expected = new StringBuilder("gcp,model\"s,checks,checks,status\n" +
+                                                       "1987654,A\"B," + completedChecks("1987654A\"B") + ",0\n");
+            for (int i = 0; i < 2000; i++)
+            {
+                in.append("1987654,Ad4X4bL5ttr2310c,2K\n");
+                expected.append("1987654,Ad4X4bL5ttr2310c,2K,2K,0\n");
+            }
+            GMNCsvProcessor p = new GMNCsvProcessor();
+            p.setHeader(true);
+            p.setChunkSize(1024);
+            p.setThreads(2);
+            assertEquals(expected.toString(), run(p, in.toString(), null));
+        }
+
+        @Test
+        public void process_TsvWithoutQuoting() throws Exception
+        {
+            StringBuilder in = new StringBuilder("1987654\t\"Ad4\n");
+            StringBuilder expected = new StringBuilder("1987654\t\"Ad4\t" + completedChecks("1987654\"Ad4") + "\t0\n");
+            for (int i = 0; i < 2000; i++)
+            {
+                in.append("1987654\tAd4X4bL5ttr2310c\t2K\n");
+                expected.append("1987654\tAd4X4bL5ttr2310c\t2K\t2K\t0\n");
+            }
+            GMNCsvProcessor p = new GMNCsvProcessor();
+            p.setDelimiter('\t');
+            p.setQuoting(false);
+            p.setChunkSize(1024);
+            assertEquals(expected.toString(), run(p, in.toString(), null));
+        }
+
+        private static String completedChecks(String partial) throws Exception
+        {
+            String gmn = GMN.addCheckCharacters(partial);
+            return gmn.substring(gmn.length() - 2);
+        }
+
+        @Test
+        public void process_ManyChunksInOrder() throws Exception
+        {
+            GMNCorpusGenerator g = new GMNCorpusGenerator(11);
+            g.setGcpLengthWeights(0, 0, 1, 0, 0, 0, 0, 0);
+            StringBuilder in = new StringBuilder();
+            StringBuilder expected = new StringBuilder();
+            for (int i = 0; i < 20000; i++)
+            {
+                String gmn = g.next();
+                String gcp = gmn.substring(0, 7), model = gmn.substring(7, gmn.length() - 2), checks = gmn.substring(gmn.length() - 2);
+                String line = i + "," + gcp + "," + model + "," + checks;
+                in.append(line).append('\n');
+                expected.append(line).append(',').append(checks).append(",0\n");
+            }
+            GMNCsvProcessor p = new GMNCsvProcessor();
+            p.setColumns(1, 2, 3);
+            p.setChunkSize(4096);
+            p.setThreads(4);
+            @SuppressWarnings("unchecked")
+            Map<GMNStatus, Long>[] counts = new Map[1];
+            assertEquals(expected.toString(), run(p, in.toString(), counts));
+            assertEquals(20000L, (long) counts[0].get(GMNStatus.VALID));
+        }
+
+        @Test
+        public void process_RecordLongerThanChunk() throws Exception
+        {
+            GMNCsvProcessor p = new GMNCsvProcessor();
+            p.setChunkSize(1024);
+            StringBuilder pad = new StringBuilder();
+            for (int i = 0; i < 5000; i++)
+                pad.append('x');
+            String out = run(p, "1987654,Ad4X4bL5ttr2310c,2K," + pad + "\n1987654,Ad4X4bL5ttr2310c,2K\n", null);
+            assertEquals("1987654,Ad4X4bL5ttr2310c,2K," + pad + ",2K,0\n1987654,Ad4X4bL5ttr2310c,2K,2K,0\n", out);
+        }
+
+        @Test(expected = IllegalArgumentException.class)
+        public void setColumns_Duplicate() throws Exception
+        {
+            new GMNCsvProcessor().setColumns(1, 1, -1);
+        }
+
+}
@@ -0,0 +1,275 @@
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/*
+ * These are unit tests for the allocation ledger.
+ *
+ */
+import org.gs1.*;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class GMNLedgerTests
+{
+
+        private static void deleteAll(Path dir) throws Exception
+        {
+            try (java.util.stream.Stream<Path> files = Files.list(dir))
+            {
+                for (Path f : (Iterable<Path>) files::iterator)
+                    Files.delete(f);
+            }
+            Files.delete(dir);
+        }
+
+        // Run a task on several threads, rethrowing the first failure on the test thread
+        private static void runThreads(int count, Runnable task) throws Exception
+        {
+            List<Throwable> failures = Collections.synchronizedList(new ArrayList<>());
+            List<Thread> threads = new ArrayList<>();
+            for (int t = 0; t < count; t++)
+            {
+                Thread thread = new Thread(() -> {
+                    try
+                    {
+                        task.run();
+                    }
+                    catch (Throwable e)
+                    {
+                        failures.add(e);
+                    }
+                });
+                threads.add(thread);
+                thread.start();
+            }
+            for (Thread thread : threads)
+                thread.join();
+            if (!failures.isEmpty())
+            {
+                Throwable e = failures.get(0);
+                if (e instanceof Error)
+                    throw (Error) e;
+                throw (Exception) e;
+            }
+        }
+
+        @Test
+        public void allocate_ValidAndNeverRepeated() throws Exception
+        {
+            Path dir = Files.createTempDirectory("gmn-ledger");
+            Set<String> issued = ConcurrentHashMap.newKeySet();
+            try
+            {
+                try (GMNLedger ledger = GMNLedger.open(dir, "1987654", "Ad4", 6))
+                {
+                    runThreads(8, () -> {
+                        for (int i = 0; i < 200; i++)
+                            for (String gmn : ledger.allocate(5))
+                                assertTrue(gmn, issued.add(gmn));
+                    });
+                    assertEquals(8000, issued.size());
+                    assertEquals(8000, ledger.getCursor());
+                }
+
+                // Reopening resumes after every allocation
+                try (GMNLedger ledger = GMNLedger.open(dir, "1987654", "Ad4", 6))
+                {
+                    assertEquals(8000, ledger.getCursor());
+                    GMNLedger.Block block = ledger.allocate(3);
+                    assertEquals(8000, block.getFirst());
+                    for (String gmn : block)
+                    {
+                        assertTrue(issued.add(gmn));
+                        assertTrue(GMN.verifyCheckCharacters(gmn));
+                        assertTrue(gmn.startsWith("1987654Ad4008"));
+                    }
+                }
+            }
+            finally
+            {
+                deleteAll(dir);
+            }
+        }
+
+        @Test
+        public void open_RecoversWithoutCheckpointAndIgnoresTornRecords() throws Exception
+        {
+            Path dir = Files.createTempDirectory("gmn-ledger");
+            try
+            {
+                try (GMNLedger ledger = GMNLedger.open(dir, "1987654", "", 8, 1024))
+                {
+                    ledger.allocate(10);
+                    ledger.allocate(20);
+                }
+
+                // Corrupt both copies of the checkpoint and append a record with a bad check value
+                try (FileChannel ch = FileChannel.open(dir.resolve("1987654.ledger"), StandardOpenOption.READ, StandardOpenOption.WRITE))
+                {
+                    ch.write(ByteBuffer.wrap(new byte[] {1, 2, 3}), 64);
+                    ch.write(ByteBuffer.wrap(new byte[] {1, 2, 3}), 96);
+                    ByteBuffer torn = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN);
+                    torn.putLong(1000000).putInt(5).putInt(12345).flip();
+                    ch.write(torn, 128 + 2 * 16);
+                }
+
+                try (GMNLedger ledger = GMNLedger.open(dir, "1987654", "", 8, 1024))
+                {
+                    assertEquals(30, ledger.getCursor());
+                    assertEquals(30, ledger.allocate(1).getFirst());
+                }
+            }
+            finally
+            {
+                deleteAll(dir);
+            }
+        }
+
+        @Test
+        public void allocate_RollsOverWhenRecordsAreUsedUp() throws Exception
+        {
+            Path dir = Files.createTempDirectory("gmn-ledger");
+            Set<Long> issued = ConcurrentHashMap.newKeySet();
+            try
+            {
+                try (GMNLedger ledger = GMNLedger.open(dir, "1987654", "", 8, 4))
+                {
+                    for (int i = 0; i < 10; i++)
+                        assertEquals(2 * i, ledger.allocate(2).getFirst());
+
+                    runThreads(4, () -> {
+                        for (int i = 0; i < 50; i++)
+                            assertTrue(issued.add(ledger.allocate(1).getFirst()));
+                    });
+                    assertEquals(200, issued.size());
+                    assertEquals(220, ledger.getCursor());
+                }
+                assertEquals(128 + 4 * 16, Files.size(dir.resolve("1987654.ledger")));
+
+                try (GMNLedger ledger = GMNLedger.open(dir, "1987654", "", 8, 4))
+                {
+                    assertEquals(220, ledger.getCursor());
+                    for (int i = 0; i < 5; i++)
+                        assertEquals(220 + i, ledger.allocate(1).getFirst());
+                }
+                try (GMNLedger ledger = GMNLedger.open(dir, "1987654", "", 8, 4))
+                {
+                    assertEquals(225, ledger.getCursor());
+                }
+            }
+            finally
+            {
+                deleteAll(dir);
+            }
+        }
+
+        @Test
+        public void allocate_Exhausted() throws Exception
+        {
+            Path dir = Files.createTempDirectory("gmn-ledger");
+            try (GMNLedger ledger = GMNLedger.open(dir, "1987654", "X", 1))
+            {
+                assertEquals("1987654X9", ledger.allocate(10).get(9).substring(0, 9));
+                try
+                {
+                    ledger.allocate(1);
+                    fail();
+                }
+                catch (IllegalStateException e)
+                {
+                    // Expected
+                }
+            }
+            finally
+            {
+                deleteAll(dir);
+            }
+        }
+
+        @Test
+        public void open_Mismatched() throws Exception
+        {
+            Path dir = Files.createTempDirectory("gmn-ledger");
+            try
+            {
+                GMNLedger.open(dir, "1987654", "A", 4).close();
+                try
+                {
+                    GMNLedger.open(dir, "1987654", "B", 4);
+                    fail();
+                }
+                catch (IllegalArgumentException e)
+                {
+                    // Expected
+                }
+            }
+            finally
+            {
+                deleteAll(dir);
+            }
+        }
+
+        @Test
+        public void open_AlreadyOpen() throws Exception
+        {
+            Path dir = Files.createTempDirectory("gmn-ledger");
+            Path link = dir.resolveSibling(dir.getFileName() + "-link");
+            Files.createSymbolicLink(link, dir);
+            try
+            {
+                try (GMNLedger ledger = GMNLedger.open(dir, "1987654", "Ad4", 6))
+                {
+                    ledger.allocate(1);
+                    for (Path same : new Path[] { dir, link })
+                    {
+                        try
+                        {
+                            GMNLedger.open(same, "1987654", "Ad4", 6);
+                            fail();
+                        }
+                        catch (IllegalStateException e)
+                        {
+                            // Expected
+                        }
+                    }
+                    assertEquals(1, ledger.allocate(1).getFirst());
+                }
+
+                // The lock is released on closing
+                try (GMNLedger ledger = GMNLedger.open(dir, "1987654", "Ad4", 6))
+                {
+                    assertEquals(2, ledger.allocate(1).getFirst());
+                }
+            }
+            finally
+            {
+                Files.delete(link);
+                deleteAll(dir);
+            }
+        }
+
+        @Test(expected = GS1Exception.class)
+        public void open_InvalidPrefix() throws Exception
+        {
+            Path dir = Files.createTempDirectory("gmn-ledger");
+            try
+            {
+                GMNLedger.open(dir, "1987654", "A#", 4);
+            }
+            finally
+            {
+                deleteAll(dir);
+            }
+        }
+
+}
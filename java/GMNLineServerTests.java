@@ -0,0 +1,196 @@
+import org.junit.Assume;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/*
+ * These are unit tests for the line protocol server and its benchmark client.
+ *
+ */
+import org.gs1.*;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+public class GMNLineServerTests
+{
+
+        private static GMNLineServer start(GMNLineServer.ResponseFormat format) throws Exception
+        {
+            GMNLineServer server = new GMNLineServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 2, format);
+            server.start();
+            return server;
+        }
+
+        private static String read(InputStream in, int bytes) throws Exception
+        {
+            byte[] buf = new byte[bytes];
+            int n = 0;
+            while (n < bytes)
+            {
+                int r = in.read(buf, n, bytes - n);
+                assertTrue(r > 0);
+                n += r;
+            }
+            return new String(buf, StandardCharsets.US_ASCII);
+        }
+
+        @Test
+        public void lineResponses_Pipelined() throws Exception
+        {
+            try (GMNLineServer server = start(GMNLineServer.ResponseFormat.LINE);
+                 Socket s = new Socket(InetAddress.getLoopbackAddress(), server.getPort()))
+            {
+                OutputStream out = s.getOutputStream();
+                out.write("1987654Ad4X4bL5ttr2310c2K\n1987654Ad4X4bL5ttr2310c2J\r\n1987\n".getBytes(StandardCharsets.US_ASCII));
+                out.write("1987654Ad4X4bL5t".getBytes(StandardCharsets.US_ASCII));
+                out.flush();
+                Thread.sleep(50);
+                out.write("tr2310c2K\n1987654Ad4X4bL5ttr2310c2K1234567890\n\nABCDE123\n".getBytes(StandardCharsets.US_ASCII));
+                assertEquals("0\n1\n2\n0\n3\n2\n4\n", read(s.getInputStream(), 14));
+            }
+        }
+
+        @Test
+        public void byteResponses() throws Exception
+        {
+            try (GMNLineServer server = start(GMNLineServer.ResponseFormat.BYTE);
+                 Socket s = new Socket(InetAddress.getLoopbackAddress(), server.getPort()))
+            {
+                s.getOutputStream().write("1987654Ad4X4bL5ttr2310c2K\n19876#Ad4X4bL5ttr2310c2K\n1987654Ad4X4bL5ttr2310c2%\n".getBytes(StandardCharsets.US_ASCII));
+                assertEquals("\u0000\u0005\u0006", read(s.getInputStream(), 3));
+            }
+        }
+
+        @Test
+        public void manyConnections() throws Exception
+        {
+            try (GMNLineServer server = start(GMNLineServer.ResponseFormat.LINE))
+            {
+                List<Socket> sockets = new ArrayList<>();
+                try
+                {
+                    for (int i = 0; i < 200; i++)
+                        sockets.add(new Socket(InetAddress.getLoopbackAddress(), server.getPort()));
+                    for (Socket s : sockets)
+                        s.getOutputStream().write("1987654Ad4X4bL5ttr2310c2K\n".getBytes(StandardCharsets.US_ASCII));
+                    for (Socket s : sockets)
+                        assertEquals("0\n", read(s.getInputStream(), 2));
+                    assertEquals(200, server.getConnections());
+                    assertEquals(200, server.getRequests());
+                }
+                finally
+                {
+                    for (Socket s : sockets)
+                        s.close();
+                }
+            }
+        }
+
+        @Test
+        public void connections_CountedOnceWhenClosed() throws Exception
+        {
+            GMNLineServer server = start(GMNLineServer.ResponseFormat.LINE);
+            List<Socket> sockets = new ArrayList<>();
+            try
+            {
+                for (int i = 0; i < 20; i++)
+                {
+                    Socket s = new Socket(InetAddress.getLoopbackAddress(), server.getPort());
+                    s.getOutputStream().write("1987654Ad4X4bL5ttr2310c2K\n".getBytes(StandardCharsets.US_ASCII));
+                    assertEquals("0\n", read(s.getInputStream(), 2));
+                    sockets.add(s);
+                }
+
+                // Disconnect half of the clients and stop the server straight away
+                for (int i = 0; i < 10; i++)
+                    sockets.get(i).close();
+                long deadline = System.currentTimeMillis() + 5000;
+                while (server.getConnections() > 10 && System.currentTimeMillis() < deadline)
+                    Thread.sleep(1);
+                assertEquals(10, server.getConnections());
+            }
+            finally
+            {
+                server.close();
+                for (Socket s : sockets)
+                    s.close();
+            }
+            assertEquals(0, server.getConnections());
+        }
+
+        @Test
+        public void accept_ContinuesAfterFileDescriptorsRunOut() throws Exception
+        {
+            InetAddress loopback = InetAddress.getLoopbackAddress();
+            try (GMNLineServer server = new GMNLineServer(new InetSocketAddress(loopback, 0), 1, GMNLineServer.ResponseFormat.LINE);
+                 Socket pending = new Socket())
+            {
+                server.start();
+                try (Socket s = new Socket(loopback, server.getPort()))
+                {
+                    s.getOutputStream().write("1987654Ad4X4bL5ttr2310c2K\n".getBytes(StandardCharsets.US_ASCII));
+                    assertEquals("0\n", read(s.getInputStream(), 2));
+                }
+                pending.bind(new InetSocketAddress(loopback, 0));  // Takes its file descriptor now
+
+                // Use up the file descriptors so that the server fails to accept the connection
+                List<FileInputStream> hoard = new ArrayList<>();
+                boolean exhausted = false;
+                try
+                {
+                    while (!exhausted && hoard.size() < 100000)
+                    {
+                        try
+                        {
+                            hoard.add(new FileInputStream("/dev/null"));
+                        }
+                        catch (IOException e)
+                        {
+                            exhausted = true;
+                        }
+                    }
+                    if (exhausted)
+                    {
+                        pending.connect(new InetSocketAddress(loopback, server.getPort()));
+                        Thread.sleep(200);
+                    }
+                }
+                finally
+                {
+                    for (FileInputStream f : hoard)
+                        f.close();
+                }
+                Assume.assumeTrue("The file descriptor limit is too high to reach", exhausted);
+
+                // Both the connection pending during the failure and a new one are served
+                pending.getOutputStream().write("1987654Ad4X4bL5ttr2310c2K\n".getBytes(StandardCharsets.US_ASCII));
+                assertEquals("0\n", read(pending.getInputStream(), 2));
+                try (Socket s = new Socket(loopback, server.getPort()))
+                {
+                    s.getOutputStream().write("1987654Ad4X4bL5ttr2310c2J\n".getBytes(StandardCharsets.US_ASCII));
+                    assertEquals("1\n", read(s.getInputStream(), 2));
+                }
+            }
+        }
+
+        @Test
+        public void benchmark_AllResponsesCorrect() throws Exception
+        {
+            try (GMNLineServer server = start(GMNLineServer.ResponseFormat.LINE))
+            {
+                String summary = GMNLineClientBenchmark.run(new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getPort()),
+                                                            50, 10000, 64, 2, 0.2);
+                assertTrue(summary, summary.contains(" 0 incorrect responses"));
+                assertEquals(500000, server.getRequests());
+            }
+        }
+
+}
@@ -0,0 +1,115 @@
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/*
+ * These are unit tests for the scanner of GMNs embedded in text.
+ *
+ */
+import org.gs1.*;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+public class GMNScannerTests
+{
+
+        // Every substring that is a valid GMN, found the slow way
+        private static List<String> bruteForce(byte[] text) throws Exception
+        {
+            List<String> found = new ArrayList<>();
+            for (int s = 0; s < text.length; s++)
+                for (int len = 8; len <= 25 && s + len <= text.length; len++)
+                {
+                    String candidate = new String(text, s, len, StandardCharsets.ISO_8859_1);
+                    try
+                    {
+                        if (GMN.verifyCheckCharacters(candidate))
+                            found.add(s + "\t" + candidate);
+                    }
+                    catch (GS1Exception e)
+                    {
+                        // Not a GMN
+                    }
+                }
+            Collections.sort(found);
+            return found;
+        }
+
+        private static byte[] randomText(long seed, int length)
+        {
+            Random r = new Random(seed);
+            GMNCorpusGenerator g = new GMNCorpusGenerator(seed);
+            String alphabet = "0123456789012345678923456789ABCDEFGHJKLMNPQRSTUVWXYZabc !#-./:\né";
+            StringBuilder sb = new StringBuilder();
+            while (sb.length() < length)
+            {
+                if (r.nextInt(20) == 0)
+                    sb.append(g.next());
+                else
+                    sb.append(alphabet.charAt(r.nextInt(alphabet.length())));
+            }
+            return sb.toString().getBytes(StandardCharsets.ISO_8859_1);
+        }
+
+        private static List<String> sorted(List<String> l)
+        {
+            Collections.sort(l);
+            return l;
+        }
+
+        @Test
+        public void scan_FindsEmbeddedGmn() throws Exception
+        {
+            List<GMNScanner.Match> found = new ArrayList<>();
+            GMNScanner.scan("Shipped item (1987654Ad4X4bL5ttr2310c2K) to store".getBytes(StandardCharsets.US_ASCII), found::add);
+            assertEquals(1, found.size());
+            assertEquals(14, found.get(0).getOffset());
+            assertEquals("1987654Ad4X4bL5ttr2310c2K", found.get(0).getGmn());
+        }
+
+        @Test
+        public void scan_MatchesBruteForce() throws Exception
+        {
+            for (long seed = 1; seed <= 3; seed++)
+            {
+                byte[] text = randomText(seed, 10000);
+                List<String> found = new ArrayList<>();
+                GMNScanner.scan(text, m -> found.add(m.toString()));
+                assertEquals(bruteForce(text), sorted(found));
+            }
+        }
+
+        @Test
+        public void scan_StreamAndChunkedFileAgree() throws Exception
+        {
+            byte[] text = randomText(9, 300000);
+            List<String> expected = new ArrayList<>();
+            GMNScanner.scan(text, m -> expected.add(m.toString()));
+            assertTrue(expected.size() > 100);
+            sorted(expected);
+
+            List<String> streamed = new ArrayList<>();
+            GMNScanner.scan(new ByteArrayInputStream(text), m -> streamed.add(m.toString()));
+            assertEquals(expected, sorted(streamed));
+
+            Path file = Files.createTempFile("gmn-scan", ".txt");
+            try
+            {
+                Files.write(file, text);
+                List<String> chunked = new ArrayList<>();
+                GMNScanner.scan(file, 4, 1000, m -> chunked.add(m.toString()));
+                assertEquals(expected, sorted(chunked));
+            }
+            finally
+            {
+                Files.delete(file);
+            }
+        }
+
+}
@@ -0,0 +1,143 @@
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/*
+ * These are unit tests for the multi-process sharded processor.
+ *
+ */
+import org.gs1.*;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Random;
+
+public class GMNShardCoordinatorTests
+{
+
+        private static String run(GMNShardCoordinator c, String input, Map<GMNStatus, Long>[] counts) throws Exception
+        {
+            Path in = Files.createTempFile("gmn", ".tsv");
+            Path out = Files.createTempFile("gmn", ".out");
+            try
+            {
+                Files.write(in, input.getBytes(StandardCharsets.UTF_8));
+                Map<GMNStatus, Long> result = c.process(in, out);
+                if (counts != null)
+                    counts[0] = result;
+                return new String(Files.readAllBytes(out), StandardCharsets.UTF_8);
+            }
+            finally
+            {
+                Files.delete(in);
+                Files.delete(out);
+            }
+        }
+
+        @Test
+        public void process_VerifiesChecks() throws Exception
+        {
+            @SuppressWarnings("unchecked")
+            Map<GMNStatus, Long>[] counts = new Map[1];
+            String out = run(new GMNShardCoordinator(2),
+                             "1987654\tAd4X4bL5ttr2310c\t2K\n" +
+                             "1987654\tAd4X4bL5ttr2310c\t2J\r\n" +
+                             "1987654\tAd4X4bL5ttr2310c\n" +
+                             "1987654\tAd4X4bL5ttr2310c\t\n" +
+                             "\n" +
+                             "1987\tAd4X4bL5ttr2310c\t2K\n" +
+                             "1987654\tAd4X4bL5ttr2310c\t2\n" +
+                             "1987654\tAd4X4bL5ttr2310c\t2%\n" +
+                             "1987654\t\n" +
+                             "1987654\tAd4X4bL5ttr2310c\t2K", counts);
+            assertEquals("1987654\tAd4X4bL5ttr2310c\t2K\t2K\t0\n" +
+                         "1987654\tAd4X4bL5ttr2310c\t2J\t2K\t1\n" +
+                         "1987654\tAd4X4bL5ttr2310c\t2K\t0\n" +
+                         "1987654\tAd4X4bL5ttr2310c\t\t2K\t10\n" +
+                         "\n" +
+                         "1987\tAd4X4bL5ttr2310c\t2K\t\t7\n" +
+                         "1987654\tAd4X4bL5ttr2310c\t2\t2K\t10\n" +
+                         "1987654\tAd4X4bL5ttr2310c\t2%\t2K\t6\n" +
+                         "1987654\t\t\t9\n" +
+                         "1987654\tAd4X4bL5ttr2310c\t2K\t2K\t0\n", out);
+            assertEquals(3L, (long) counts[0].get(GMNStatus.VALID));
+            assertEquals(1L, (long) counts[0].get(GMNStatus.INCORRECT_CHECK));
+            assertEquals(1L, (long) counts[0].get(GMNStatus.GCP_TOO_SHORT));
+            assertEquals(1L, (long) counts[0].get(GMNStatus.MODEL_EMPTY));
+            assertEquals(2L, (long) counts[0].get(GMNStatus.CHECK_WRONG_LENGTH));
+        }
+
+        @Test
+        public void process_SameOutputForAnyNumberOfWorkers() throws Exception
+        {
+            Random r = new Random(37);
+            String models = "0123456789ABCDEFGHJKLMNPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz!\"%&'()*+,-./:;<=>?_";
+            String[] gcps = new String[200];
+            for (int i = 0; i < gcps.length; i++)
+                gcps[i] = String.valueOf(10000 + r.nextInt(90000)) + String.valueOf(10000000 + r.nextInt(10000000)).substring(1, 1 + r.nextInt(8));
+
+            StringBuilder input = new StringBuilder();
+            StringBuilder expected = new StringBuilder();
+            for (int i = 0; i < 5000; i++)
+            {
+                String gcp = gcps[r.nextInt(gcps.length)];
+                StringBuilder model = new StringBuilder();
+                for (int n = 1 + r.nextInt(25 - 2 - gcp.length()); n > 0; n--)
+                    model.append(models.charAt(r.nextInt(models.length())));
+                String checks = GMN.checkCharactersGcpModel(gcp, model.toString());
+                String line = gcp + "\t" + model + (r.nextBoolean() ? "\t" + checks : "");
+                input.append(line).append('\n');
+                expected.append(line).append('\t').append(checks).append("\t0\n");
+            }
+
+            for (int workers : new int[] { 1, 3 })
+            {
+                GMNShardCoordinator c = new GMNShardCoordinator(workers);
+                c.setChunkLines(500);
+                assertEquals(expected.toString(), run(c, input.toString(), null));
+            }
+        }
+
+        @Test
+        public void process_WithWorkerStatistics() throws Exception
+        {
+            GMNShardCoordinator c = new GMNShardCoordinator(2);
+            c.setWorkerStatistics(true);
+            assertEquals("1987654\tAd4X4bL5ttr2310c\t2K\t2K\t0\n12345\tA\t" + GMN.checkCharacters("12345A") + "\t0\n",
+                         run(c, "1987654\tAd4X4bL5ttr2310c\t2K\n12345\tA\n", null));
+        }
+
+        @Test
+        public void shardOf_StableAndBalanced()
+        {
+            GMNShardCoordinator three = new GMNShardCoordinator(3);
+            GMNShardCoordinator four = new GMNShardCoordinator(4);
+            int[] perWorker = new int[3];
+            int moved = 0;
+            for (int i = 0; i < 30000; i++)
+            {
+                String gcp = String.valueOf(1000000 + i * 37);
+                int w = three.shardOf(gcp);
+                assertEquals(w, new GMNShardCoordinator(3).shardOf(gcp));
+                perWorker[w]++;
+                int w4 = four.shardOf(gcp);
+                if (w4 != w)
+                {
+                    // Only GS1 Company Prefixes taken by the new worker move
+                    assertEquals(3, w4);
+                    moved++;
+                }
+            }
+            for (int n : perWorker)
+                assertTrue(n > 8000 && n < 12000);
+            assertTrue(moved > 5000 && moved < 10000);
+        }
+
+        @Test(expected = IllegalArgumentException.class)
+        public void constructor_NoWorkers()
+        {
+            new GMNShardCoordinator(0);
+        }
+
+}
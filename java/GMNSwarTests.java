@@ -0,0 +1,75 @@
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/*
+ * These are unit tests for the word-at-a-time character set screening, which
+ * is reached through the status methods. Every byte value is placed at every
+ * position of components of every length, so that each lane of a word and
+ * each position of a tail is covered.
+ *
+ */
+import org.gs1.*;
+
+public class GMNSwarTests
+{
+
+        private final static String GCP = "198765432109";
+        private final static String MODEL = "Ad4X4bL5ttr2310cAd4X4bL";
+
+        @Test
+        public void status_EveryByteOfModelReference() throws Exception
+        {
+            for (int len = 6; len <= MODEL.length(); len++)
+            {
+                String partial = GCP.substring(0, 5) + MODEL.substring(0, len - 5);
+                String checks = GMN.checkCharacters(partial);
+                for (int pos = 5; pos < len; pos++)
+                    for (char c = 0; c < 256; c++)
+                    {
+                        String p = partial.substring(0, pos) + c + partial.substring(pos + 1);
+                        GMNStatus expected = !GMN.goodCharacterPositions(p, false)[pos] ? GMNStatus.INVALID_CHARACTER :
+                                             GMN.checkCharacters(p).equals(checks) ? GMNStatus.VALID : GMNStatus.INCORRECT_CHECK;
+                        assertEquals(len + "/" + pos + "/" + (int) c, expected, GMN.status(p + checks));
+                    }
+            }
+        }
+
+        @Test
+        public void statusGcpModelChecks_EveryByteOfEachComponent() throws Exception
+        {
+            for (int gcpLen = 5; gcpLen <= 12; gcpLen++)
+            {
+                String gcp = GCP.substring(0, gcpLen);
+                for (int pos = 0; pos < gcpLen; pos++)
+                    for (char c = 0; c < 256; c++)
+                    {
+                        String g = gcp.substring(0, pos) + c + gcp.substring(pos + 1);
+                        GMNStatus expected = c >= '0' && c <= '9' ? GMNStatus.VALID : GMNStatus.NON_NUMERIC_GCP;
+                        assertEquals(gcpLen + "/" + pos + "/" + (int) c, expected, GMN.statusGcpModelChecks(g, "A", null));
+                    }
+            }
+
+            for (int modelLen = 1; modelLen <= 18; modelLen++)
+            {
+                String model = MODEL.substring(0, modelLen);
+                for (int pos = 0; pos < modelLen; pos++)
+                    for (char c = 0; c < 256; c++)
+                    {
+                        String m = model.substring(0, pos) + c + model.substring(pos + 1);
+                        GMNStatus expected = GMN.goodCharacterPositionsGcpModel("12345", m)[5 + pos] ? GMNStatus.VALID : GMNStatus.INVALID_CHARACTER;
+                        assertEquals(modelLen + "/" + pos + "/" + (int) c, expected, GMN.statusGcpModelChecks("12345", m, null));
+                    }
+            }
+        }
+
+        @Test
+        public void statusGcpModelChecks_VerifiesChecks() throws Exception
+        {
+            assertEquals(GMNStatus.VALID, GMN.statusGcpModelChecks("1987654", "Ad4X4bL5ttr2310c", "2K"));
+            assertEquals(GMNStatus.INCORRECT_CHECK, GMN.statusGcpModelChecks("1987654", "Ad4X4bL5ttr2310c", "2J"));
+            assertEquals(GMNStatus.CHECK_WRONG_LENGTH, GMN.statusGcpModelChecks("1987654", "Ad4X4bL5ttr2310c", "2"));
+            assertEquals(GMNStatus.GCP_TOO_SHORT, GMN.statusGcpModelChecks("1987", "Ad4X4bL5ttr2310c", "2K"));
+            assertEquals(GMNStatus.MODEL_EMPTY, GMN.statusGcpModelChecks("1987654", "", "2K"));
+        }
+
+}
@@ -26,6 +26,18 @@ public class GMNTests
             assertTrue(verifyCheckCharacters("1987654Ad4X4bL5ttr2310c2K"));
         }
 
+        @Test
+        public void status_ClassifiesFormatErrors() throws Exception
+        {
+            assertEquals(GMNStatus.VALID, status("1987654Ad4X4bL5ttr2310c2K"));
+            assertEquals(GMNStatus.INCORRECT_CHECK, status("1987654Ad4X4bL5ttr2310cXK"));
+            assertEquals(GMNStatus.TOO_SHORT, status("12345A2"));
+            assertEquals(GMNStatus.TOO_LONG, status("1987654Ad4X4bL5ttr2310c12345672K"));
+            assertEquals(GMNStatus.NON_NUMERIC_GCP, status("X987654Ad4X4bL5ttr2310c2K"));
+            assertEquals(GMNStatus.INVALID_CHARACTER, status("1987654Ad4X4bL5ttr2310\u00e92K"));
+            assertEquals(GMNStatus.INVALID_CHECK_CHARACTER, status("1987654Ad4X4bL5ttr2310c2a"));
+        }
+
         @Test
         public void checkCharacters_UsingExampleFromGenSpecs() throws Exception
         {
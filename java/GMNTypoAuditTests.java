@@ -0,0 +1,113 @@
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/*
+ * These are unit tests for the catalogue typo-robustness audit.
+ *
+ */
+import org.gs1.*;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+public class GMNTypoAuditTests
+{
+
+        @Test
+        public void audit_FindsEachKind() throws Exception
+        {
+            List<String> catalogue = Arrays.asList(
+                "1987654Ad4X4bL5ttr2310c2K",    // 0
+                "1987654Ad4X4bL5ttr2310cK2",    // 1: transposition of 0
+                "1987654Ad4X4bL5ttr2310c2J",    // 2: substitution of 0
+                "1987654Ad4X4bL5ttr2310c2",     // 3: deletion from 0
+                "1987654Ad4X4bL5ttr2310c2K",    // 4: duplicate of 0
+                "12345ABCDE99");                // 5: unrelated
+            List<GMNTypoAudit.Pair> pairs = GMNTypoAudit.audit(catalogue, 2);
+            List<String> found = new ArrayList<>();
+            for (GMNTypoAudit.Pair p : pairs)
+                found.add(p.getFirst() + "," + p.getSecond() + "," + p.getKind() + "," + p.getPosition());
+            assertEquals(Arrays.asList("0,1,TRANSPOSITION,23", "0,2,SUBSTITUTION,24", "0,3,INSERTION,24", "0,4,DUPLICATE,-1",
+                                       "1,3,INSERTION,23", "1,4,TRANSPOSITION,23",
+                                       "2,3,INSERTION,24", "2,4,SUBSTITUTION,24", "3,4,INSERTION,24"), found);
+        }
+
+        // Damerau distance of at most one, the slow way
+        private static boolean related(String a, String b)
+        {
+            if (a.equals(b))
+                return true;
+            if (a.length() == b.length())
+            {
+                int i = 0;
+                while (a.charAt(i) == b.charAt(i))
+                    i++;
+                if (a.substring(i + 1).equals(b.substring(i + 1)))
+                    return true;
+                return i + 1 < a.length() && a.charAt(i) == b.charAt(i + 1) && a.charAt(i + 1) == b.charAt(i) &&
+                       a.substring(i + 2).equals(b.substring(i + 2));
+            }
+            if (Math.abs(a.length() - b.length()) != 1)
+                return false;
+            String longer = a.length() > b.length() ? a : b, shorter = a.length() > b.length() ? b : a;
+            for (int i = 0; i < longer.length(); i++)
+                if ((longer.substring(0, i) + longer.substring(i + 1)).equals(shorter))
+                    return true;
+            return false;
+        }
+
+        @Test
+        public void audit_MatchesBruteForce() throws Exception
+        {
+            // A small alphabet and short entries produce many related pairs
+            Random r = new Random(3);
+            List<String> catalogue = new ArrayList<>();
+            for (int i = 0; i < 1500; i++)
+            {
+                StringBuilder sb = new StringBuilder();
+                int len = 3 + r.nextInt(3);
+                for (int j = 0; j < len; j++)
+                    sb.append("AB1".charAt(r.nextInt(3)));
+                catalogue.add(sb.toString());
+            }
+
+            List<String> expected = new ArrayList<>();
+            for (int i = 0; i < catalogue.size(); i++)
+                for (int j = i + 1; j < catalogue.size(); j++)
+                    if (related(catalogue.get(i), catalogue.get(j)))
+                        expected.add(i + "," + j);
+
+            List<String> found = new ArrayList<>();
+            for (GMNTypoAudit.Pair p : GMNTypoAudit.audit(catalogue, 3))
+                found.add(p.getFirst() + "," + p.getSecond());
+            Collections.sort(expected);
+            Collections.sort(found);
+            assertEquals(expected, found);
+        }
+
+        @Test
+        public void audit_File() throws Exception
+        {
+            Path file = Files.createTempFile("gmn-catalogue", ".txt");
+            try
+            {
+                Files.write(file, "1987654Ad4X4bL5ttr2310c2K\r\n\r\n12345ABCDE99\n1987654Ad4X4bL5ttr2310cK2".getBytes(StandardCharsets.US_ASCII));
+                List<GMNTypoAudit.Pair> pairs = GMNTypoAudit.audit(file, 1);
+                assertEquals(1, pairs.size());
+                assertEquals(0, pairs.get(0).getFirst());
+                assertEquals(2, pairs.get(0).getSecond());
+                assertEquals("1987654Ad4X4bL5ttr2310cK2", pairs.get(0).getSecondGmn());
+            }
+            finally
+            {
+                Files.delete(file);
+            }
+        }
+
+}
@@ -0,0 +1,124 @@
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/*
+ * These are unit tests for the Apache Arrow column support. They require the
+ * Apache Arrow libraries and are run when building with -Parrow.
+ *
+ */
+import org.gs1.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.memory.RootAllocator;
+import org.apache.arrow.vector.BitVector;
+import org.apache.arrow.vector.SmallIntVector;
+import org.apache.arrow.vector.VarCharVector;
+
+public class GMNArrowTests
+{
+
+        private static VarCharVector column(BufferAllocator allocator, String... values)
+        {
+            VarCharVector v = new VarCharVector("gmn", allocator);
+            v.allocateNew();
+            for (int i = 0; i < values.length; i++)
+                if (values[i] == null)
+                    v.setNull(i);
+                else
+                    v.setSafe(i, values[i].getBytes(StandardCharsets.UTF_8));
+            v.setValueCount(values.length);
+            return v;
+        }
+
+        @Test
+        public void verify_StatusCodes() throws Exception
+        {
+            try (BufferAllocator allocator = new RootAllocator();
+                 VarCharVector gmns = column(allocator, "1987654Ad4X4bL5ttr2310c2K", "1987654Ad4X4bL5ttr2310cXK",
+                                             null, "12345XX", "123456789012345678901234XX", "X987654Ad4X4bL5ttr2310c2K",
+                                             "19876#4Ad4X4bL5ttr2310c2K", "1987654Ad4X4bL5ttr2310c2x");
+                 SmallIntVector status = new SmallIntVector("status", allocator))
+            {
+                GMNArrow.verify(gmns, status);
+                assertEquals(8, status.getValueCount());
+                assertEquals(GMNStatus.VALID.code(), status.get(0));
+                assertEquals(GMNStatus.INCORRECT_CHECK.code(), status.get(1));
+                assertTrue(status.isNull(2));
+                assertEquals(GMNStatus.TOO_SHORT.code(), status.get(3));
+                assertEquals(GMNStatus.TOO_LONG.code(), status.get(4));
+                assertEquals(GMNStatus.NON_NUMERIC_GCP.code(), status.get(5));
+                assertEquals(GMNStatus.INVALID_CHARACTER.code(), status.get(6));
+                assertEquals(GMNStatus.INVALID_CHECK_CHARACTER.code(), status.get(7));
+            }
+        }
+
+        @Test
+        public void verify_Validity() throws Exception
+        {
+            try (BufferAllocator allocator = new RootAllocator();
+                 VarCharVector gmns = column(allocator, "12345ANJ", "12345ANX", null, "12345XX");
+                 BitVector valid = new BitVector("valid", allocator))
+            {
+                GMNArrow.verify(gmns, valid);
+                assertEquals(1, valid.get(0));
+                assertEquals(0, valid.get(1));
+                assertTrue(valid.isNull(2));
+                assertEquals(0, valid.get(3));
+            }
+        }
+
+        @Test
+        public void checkCharacters_Column() throws Exception
+        {
+            try (BufferAllocator allocator = new RootAllocator();
+                 VarCharVector parts = column(allocator, "1987654Ad4X4bL5ttr2310c", null, "12345", "12345678901234567890123");
+                 VarCharVector checks = new VarCharVector("checks", allocator))
+            {
+                GMNArrow.checkCharacters(parts, checks);
+                assertEquals("2K", checks.getObject(0).toString());
+                assertTrue(checks.isNull(1));
+                assertTrue(checks.isNull(2));
+                assertEquals("NT", checks.getObject(3).toString());
+            }
+        }
+
+        @Test
+        public void verify_ParallelBatchesMatchPublicApi() throws Exception
+        {
+            GMNCorpusGenerator g = new GMNCorpusGenerator(11);
+            g.setErrorWeight(GMNStatus.INCORRECT_CHECK, 1);
+            try (BufferAllocator allocator = new RootAllocator())
+            {
+                List<VarCharVector> batches = new ArrayList<>();
+                List<SmallIntVector> results = new ArrayList<>();
+                List<String[]> expected = new ArrayList<>();
+                for (int b = 0; b < 3; b++)
+                {
+                    String[] values = new String[100000 + b];
+                    for (int i = 0; i < values.length; i++)
+                        values[i] = g.next();
+                    expected.add(values);
+                    batches.add(column(allocator, values));
+                    results.add(new SmallIntVector("status", allocator));
+                }
+
+                GMNArrow.verify(batches, results, ForkJoinPool.commonPool());
+
+                for (int b = 0; b < 3; b++)
+                {
+                    String[] values = expected.get(b);
+                    for (int i = 0; i < values.length; i++)
+                        assertEquals(values[i], GMN.verifyCheckCharacters(values[i]),
+                                     results.get(b).get(i) == GMNStatus.VALID.code());
+                    batches.get(b).close();
+                    results.get(b).close();
+                }
+            }
+        }
+
+}
@@ -0,0 +1,276 @@
+package org.gs1;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+import org.apache.arrow.memory.ArrowBuf;
+import org.apache.arrow.vector.BaseVariableWidthVector;
+import org.apache.arrow.vector.BitVector;
+import org.apache.arrow.vector.BitVectorHelper;
+import org.apache.arrow.vector.SmallIntVector;
+import org.apache.arrow.vector.VarCharVector;
+
+/**
+ * Verification and check character pair calculation over Apache Arrow
+ * columns of GMNs.
+ *
+ * <p>Each cell is read directly from the offset and data buffers of the
+ * {@link VarCharVector} without creating a String, and results are written
+ * to a result vector of the same length. A null input cell produces a null
+ * result. Each method allocates the result vector, replacing any existing
+ * content.
+ *
+ * <p>Lengths are measured in bytes of the UTF-8 encoded cells, so a cell
+ * containing a non-ASCII character may be reported as
+ * {@link GMNStatus#TOO_LONG} where the equivalent String would be reported
+ * as containing an invalid character.
+ *
+ * <p>This class requires the Apache Arrow vector library on the classpath.
+ *
+ * @author Copyright (c) 2019-2021 GS1 AISBL.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+public final class GMNArrow {
+
+    /**
+     * Number of rows processed by each parallel task. A multiple of eight so
+     * that concurrent tasks never share a byte of a validity buffer.
+     */
+    private final static int RANGE_ROWS = 1 << 16;
+
+    private final static int OFFSET_WIDTH = BaseVariableWidthVector.OFFSET_WIDTH;
+
+    private GMNArrow() {}
+
+    /**
+     * Verify a column of GMNs, recording the {@link GMNStatus} code of each.
+     *
+     * @param gmns a column of GMNs.
+     * @param status receives the {@link GMNStatus#code()} of each GMN.
+     */
+    public static void verify(VarCharVector gmns, SmallIntVector status)
+    {
+        int n = gmns.getValueCount();
+        status.allocateNew(n);
+        verifyRange(gmns, status, 0, n);
+        status.setValueCount(n);
+    }
+
+    /**
+     * Verify a column of GMNs, recording whether each has a valid check
+     * character pair. GMNs with an invalid format are recorded as not valid.
+     *
+     * @param gmns a column of GMNs.
+     * @param valid receives 1 for each valid GMN. Otherwise 0.
+     */
+    public static void verify(VarCharVector gmns, BitVector valid)
+    {
+        int n = gmns.getValueCount();
+        valid.allocateNew(n);
+        verifyRange(gmns, valid, 0, n);
+        valid.setValueCount(n);
+    }
+
+    /**
+     * Calculate the check character pair for a column of partial GMNs. The
+     * result is null for each partial GMN whose format is invalid.
+     *
+     * @param parts a column of partial GMNs.
+     * @param checks receives the check character pair of each partial GMN.
+     */
+    public static void checkCharacters(VarCharVector parts, VarCharVector checks)
+    {
+        int n = parts.getValueCount();
+        allocateChecks(checks, n);
+        checkCharactersRange(parts, checks, 0, n);
+        checks.setValueCount(n);
+    }
+
+    /**
+     * Verify the columns of GMNs of a number of record batches in parallel,
+     * recording the {@link GMNStatus} code of each.
+     *
+     * @param gmns a column of GMNs from each record batch.
+     * @param status a result vector corresponding to each column of GMNs.
+     * @param executor executor running the parallel tasks.
+     * @throws IllegalArgumentException if the number of columns and result vectors differ.
+     */
+    public static void verify(List<VarCharVector> gmns, List<SmallIntVector> status, Executor executor)
+    {
+        if (gmns.size() != status.size())
+            throw new IllegalArgumentException("A result vector is required for each column.");
+
+        for (int b = 0; b < gmns.size(); b++)
+            status.get(b).allocateNew(gmns.get(b).getValueCount());
+
+        List<CompletableFuture<Void>> tasks = new ArrayList<>();
+        for (int b = 0; b < gmns.size(); b++)
+        {
+            VarCharVector in = gmns.get(b);
+            SmallIntVector out = status.get(b);
+            int n = in.getValueCount();
+            for (int from = 0; from < n; from += RANGE_ROWS)
+            {
+                int start = from, end = Math.min(n, from + RANGE_ROWS);
+                tasks.add(CompletableFuture.runAsync(() -> verifyRange(in, out, start, end), executor));
+            }
+        }
+        CompletableFuture.allOf(tasks.toArray(new CompletableFuture<?>[0])).join();
+
+        for (int b = 0; b < gmns.size(); b++)
+            status.get(b).setValueCount(gmns.get(b).getValueCount());
+    }
+
+    /**
+     * Calculate the check character pairs for the columns of partial GMNs of a
+     * number of record batches in parallel.
+     *
+     * @param parts a column of partial GMNs from each record batch.
+     * @param checks a result vector corresponding to each column of partial GMNs.
+     * @param executor executor running the parallel tasks.
+     * @throws IllegalArgumentException if the number of columns and result vectors differ.
+     */
+    public static void checkCharacters(List<VarCharVector> parts, List<VarCharVector> checks, Executor executor)
+    {
+        if (parts.size() != checks.size())
+            throw new IllegalArgumentException("A result vector is required for each column.");
+
+        for (int b = 0; b < parts.size(); b++)
+            allocateChecks(checks.get(b), parts.get(b).getValueCount());
+
+        List<CompletableFuture<Void>> tasks = new ArrayList<>();
+        for (int b = 0; b < parts.size(); b++)
+        {
+            VarCharVector in = parts.get(b);
+            VarCharVector out = checks.get(b);
+            int n = in.getValueCount();
+            for (int from = 0; from < n; from += RANGE_ROWS)
+            {
+                int start = from, end = Math.min(n, from + RANGE_ROWS);
+                tasks.add(CompletableFuture.runAsync(() -> checkCharactersRange(in, out, start, end), executor));
+            }
+        }
+        CompletableFuture.allOf(tasks.toArray(new CompletableFuture<?>[0])).join();
+
+        for (int b = 0; b < parts.size(); b++)
+            checks.get(b).setValueCount(parts.get(b).getValueCount());
+    }
+
+    // Record the status code of each GMN within a range of rows
+    private static void verifyRange(VarCharVector gmns, SmallIntVector status, int from, int to)
+    {
+        ArrowBuf offsets = gmns.getOffsetBuffer();
+        ArrowBuf data = gmns.getDataBuffer();
+        byte[] scratch = new byte[GMN.MAX_PART_LENGTH + 2];
+        Object event = GMNEvents.EVENTS.beginBatch();
+        int valid = 0, rejected = 0;
+        for (int i = from; i < to; i++)
+        {
+            if (gmns.isNull(i))
+            {
+                status.setNull(i);
+                continue;
+            }
+            GMNStatus s = status(offsets, data, i, scratch, true);
+            status.set(i, s.code());
+            if (s == GMNStatus.VALID)
+                valid++;
+            else if (s != GMNStatus.INCORRECT_CHECK)
+            {
+                rejected++;
+                GMNEvents.EVENTS.rejected(s);
+            }
+        }
+        GMNEvents.EVENTS.endBatch(event, "GMNArrow", to - from, valid, rejected);
+    }
+
+    // Record the validity of each GMN within a range of rows
+    private static void verifyRange(VarCharVector gmns, BitVector valid, int from, int to)
+    {
+        ArrowBuf offsets = gmns.getOffsetBuffer();
+        ArrowBuf data = gmns.getDataBuffer();
+        byte[] scratch = new byte[GMN.MAX_PART_LENGTH + 2];
+        Object event = GMNEvents.EVENTS.beginBatch();
+        int good = 0, rejected = 0;
+        for (int i = from; i < to; i++)
+        {
+            if (gmns.isNull(i))
+            {
+                valid.setNull(i);
+                continue;
+            }
+            GMNStatus s = status(offsets, data, i, scratch, true);
+            valid.set(i, s == GMNStatus.VALID ? 1 : 0);
+            if (s == GMNStatus.VALID)
+                good++;
+            else if (s != GMNStatus.INCORRECT_CHECK)
+            {
+                rejected++;
+                GMNEvents.EVENTS.rejected(s);
+            }
+        }
+        GMNEvents.EVENTS.endBatch(event, "GMNArrow", to - from, good, rejected);
+    }
+
+    // Write the check character pair of each partial GMN within a range of rows
+    private static void checkCharactersRange(VarCharVector parts, VarCharVector checks, int from, int to)
+    {
+        ArrowBuf offsets = parts.getOffsetBuffer();
+        ArrowBuf data = parts.getDataBuffer();
+        ArrowBuf validity = checks.getValidityBuffer();
+        ArrowBuf out = checks.getDataBuffer();
+        byte[] scratch = new byte[GMN.MAX_PART_LENGTH + 2];
+        for (int i = from; i < to; i++)
+        {
+            if (parts.isNull(i) || status(offsets, data, i, scratch, false) != GMNStatus.VALID)
+            {
+                BitVectorHelper.unsetBit(validity, i);
+                continue;
+            }
+            int len = offsets.getInt((long) (i + 1) * OFFSET_WIDTH) - offsets.getInt((long) i * OFFSET_WIDTH);
+            int sum = GMN.checkSum(scratch, 0, len);
+            out.setByte(2L * i, GMN.cset32Char(sum / 32));
+            out.setByte(2L * i + 1, GMN.cset32Char(sum % 32));
+            BitVectorHelper.setBit(validity, i);
+        }
+    }
+
+    // Allocate a result vector holding a two character value in every row,
+    // so that rows can be written independently in any order
+    private static void allocateChecks(VarCharVector checks, int n)
+    {
+        checks.allocateNew(2L * n, n);
+        ArrowBuf offsets = checks.getOffsetBuffer();
+        for (int i = 0; i <= n; i++)
+            offsets.setInt((long) i * OFFSET_WIDTH, 2 * i);
+        checks.setLastSet(n - 1);
+    }
+
+    // Classify the value of a row, copying it into the scratch buffer
+    private static GMNStatus status(ArrowBuf offsets, ArrowBuf data, int i, byte[] scratch, boolean complete)
+    {
+        int start = offsets.getInt((long) i * OFFSET_WIDTH);
+        int len = offsets.getInt((long) (i + 1) * OFFSET_WIDTH) - start;
+        if (len > scratch.length)
+            return GMNStatus.TOO_LONG;
+        data.getBytes(start, scratch, 0, len);
+        return GMN.status(scratch, 0, len, complete);
+    }
+
+}
@@ -0,0 +1,144 @@
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/*
+ * These are unit tests for the Java Flight Recorder events. They require Java
+ * 11 or later.
+ *
+ */
+import org.gs1.*;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import jdk.jfr.Recording;
+
+public class GMNFlightRecorderTests
+{
+
+        @Test
+        public void recording_SummarisesBatchesAndRejectionBursts() throws Exception
+        {
+            Path file = Files.createTempFile("gmn", ".jfr");
+            try (Recording recording = new Recording())
+            {
+                recording.enable("org.gs1.BatchVerify");
+                recording.enable("org.gs1.RejectionBurst");
+                recording.start();
+
+                try (GMNBatchVerifier verifier = new GMNBatchVerifier(32, 1000))
+                {
+                    List<CompletableFuture<Boolean>> futures = new ArrayList<>();
+                    for (int i = 0; i < 500; i++)
+                        futures.add(verifier.verifyAsync(i % 5 == 0 ? "12345XX" : "12345ANJ"));
+                    for (CompletableFuture<Boolean> f : futures)
+                        f.handle((v, t) -> v).join();
+                }
+
+                // The burst is recorded once the threshold is reached
+                rejectForTwoWindows(() -> assertRejected("1234"));
+
+                recording.stop();
+                recording.dump(file);
+            }
+
+            String summary = GMNRecordingAnalyzer.summarize(file);
+            Files.delete(file);
+            assertTrue(summary, summary.contains("Batch verification by GMNBatchVerifier"));
+            assertTrue(summary, summary.contains("400 valid, 0 not valid, 100 rejected"));
+            assertTrue(summary, summary.contains("Rejection bursts"));
+            assertTrue(summary, summary.contains("The input is too short"));
+        }
+
+        @Test
+        public void recording_BurstFollowedBySilence() throws Exception
+        {
+            Path file = Files.createTempFile("gmn", ".jfr");
+            try (Recording recording = new Recording())
+            {
+                recording.enable("org.gs1.RejectionBurst");
+                recording.start();
+                rejectForTwoWindows(() -> assertRejected("12345#A2K"));
+                Thread.sleep(1500);
+                recording.stop();
+                recording.dump(file);
+            }
+
+            String summary = GMNRecordingAnalyzer.summarize(file);
+            Files.delete(file);
+            assertTrue(summary, summary.contains("Rejection bursts"));
+            assertTrue(summary, summary.contains("reaching 100 rejections"));
+            assertTrue(summary, summary.contains("Invalid character at position 6: #"));
+        }
+
+        @Test
+        public void recording_BurstFromBulkProcessing() throws Exception
+        {
+            Path input = Files.createTempFile("gmn", ".csv");
+            Path output = Files.createTempFile("gmn", ".csv");
+            Path file = Files.createTempFile("gmn", ".jfr");
+            StringBuilder rows = new StringBuilder();
+            for (int i = 0; i < 1000; i++)
+                rows.append("1987,Ad4X4bL5ttr2310c,2K\n");
+            Files.write(input, rows.toString().getBytes(StandardCharsets.US_ASCII));
+            try (Recording recording = new Recording())
+            {
+                recording.enable("org.gs1.RejectionBurst");
+                recording.start();
+                GMNCsvProcessor processor = new GMNCsvProcessor();
+                processor.setThreads(1);
+                rejectForTwoWindows(() -> {
+                    try
+                    {
+                        assertEquals(1000L, (long) processor.process(input, output).get(GMNStatus.GCP_TOO_SHORT));
+                    }
+                    catch (IOException e)
+                    {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+                recording.stop();
+                recording.dump(file);
+            }
+            finally
+            {
+                Files.delete(input);
+                Files.delete(output);
+            }
+
+            String summary = GMNRecordingAnalyzer.summarize(file);
+            Files.delete(file);
+            assertTrue(summary, summary.contains("Rejection bursts"));
+            assertTrue(summary, summary.contains("GCP_TOO_SHORT"));
+        }
+
+        // Keep rejecting input for longer than two burst windows, so that one
+        // whole window of rejections follows any made by earlier tests
+        private static void rejectForTwoWindows(Runnable reject)
+        {
+            long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(2100);
+            do
+                reject.run();
+            while (System.nanoTime() < end);
+        }
+
+        private static void assertRejected(String gmn)
+        {
+            try
+            {
+                GMN.verifyCheckCharacters(gmn);
+                fail();
+            }
+            catch (GS1Exception e)
+            {
+            }
+        }
+
+}
@@ -0,0 +1,254 @@
+package org.gs1;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+import jdk.jfr.Timespan;
+
+/**
+ * Java Flight Recorder implementation of the hooks through which the classes
+ * of this package report their activity. It is loaded by GMNEvents when
+ * available.
+ *
+ * <p>Batch and file chunk events are duration events subject to the usual
+ * <code>threshold</code> setting. In addition only one in every
+ * <code>org.gs1.jfr.batchSampling</code> batches (default 1) is timed.
+ * Rejections are not recorded individually. They are counted both from the
+ * exceptions of the string methods and from the statuses of the bulk
+ * processors, whose sample reason is the status name. Time is divided into consecutive
+ * windows of <code>org.gs1.jfr.burstWindowMillis</code> (default 1000) and a
+ * rejection burst event is recorded as soon as
+ * <code>org.gs1.jfr.burstThreshold</code> (default 100) inputs have been
+ * rejected within one window, at most once per window. These limits are read
+ * from system properties at startup.
+ *
+ * <p>Nothing is measured unless a recording has enabled the events.
+ *
+ * <p>This class requires Java 11 or later.
+ *
+ * @author Copyright (c) 2019-2021 GS1 AISBL.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+final class GMNFlightRecorder extends GMNEvents {
+
+    /**
+     * Name of the batch verification event.
+     */
+    final static String BATCH_EVENT = "org.gs1.BatchVerify";
+
+    /**
+     * Name of the file chunk processing event.
+     */
+    final static String CHUNK_EVENT = "org.gs1.FileChunk";
+
+    /**
+     * Name of the rejection burst event.
+     */
+    final static String BURST_EVENT = "org.gs1.RejectionBurst";
+
+    @Name(BATCH_EVENT)
+    @Label("GMN Batch Verification")
+    @Description("Verification of a batch of GMNs")
+    @Category({"GS1", "GMN"})
+    @StackTrace(false)
+    @Threshold("0 ms")
+    static final class BatchEvent extends Event
+    {
+        @Label("Source")
+        String source;
+
+        @Label("Size")
+        int size;
+
+        @Label("Valid")
+        int valid;
+
+        @Label("Rejected")
+        @Description("Inputs with an invalid format")
+        int rejected;
+    }
+
+    @Name(CHUNK_EVENT)
+    @Label("GMN File Chunk")
+    @Description("Processing of a chunk of a file of GMNs")
+    @Category({"GS1", "GMN"})
+    @StackTrace(false)
+    @Threshold("0 ms")
+    static final class ChunkEvent extends Event
+    {
+        @Label("File")
+        String file;
+
+        @Label("Offset")
+        @DataAmount
+        long offset;
+
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+
+        @Label("Items")
+        long items;
+
+        @Label("Rejected")
+        @Description("Items with an invalid format")
+        long rejected;
+    }
+
+    @Name(BURST_EVENT)
+    @Label("GMN Rejection Burst")
+    @Description("Many inputs rejected due to their format within a short window")
+    @Category({"GS1", "GMN"})
+    @StackTrace(false)
+    static final class BurstEvent extends Event
+    {
+        @Label("Rejections")
+        @Description("Rejections within the window when the burst was recorded")
+        long rejections;
+
+        @Label("Window")
+        @Description("Time from the start of the window until the burst was recorded")
+        @Timespan(Timespan.NANOSECONDS)
+        long window;
+
+        @Label("Sample Reason")
+        @Description("The reason given for one of the rejections")
+        String sampleReason;
+    }
+
+    private final int batchSampling = Integer.getInteger("org.gs1.jfr.batchSampling", 1);
+    private final long burstThreshold = Math.min(Math.max(Long.getLong("org.gs1.jfr.burstThreshold", 100), 1), 0xFFFFFFFFL);
+    private final long burstWindowNanos = Math.max(Long.getLong("org.gs1.jfr.burstWindowMillis", 1000), 1) * 1000000;
+    private final long origin = System.nanoTime();
+
+    private final AtomicLong batches = new AtomicLong();
+
+    // Index of the current window in the upper half and its number of
+    // rejections, counted no further than the threshold, in the lower half
+    private final AtomicLong window = new AtomicLong();
+
+    // Registering the events makes them visible to recordings before first use
+    GMNFlightRecorder()
+    {
+        FlightRecorder.register(BatchEvent.class);
+        FlightRecorder.register(ChunkEvent.class);
+        FlightRecorder.register(BurstEvent.class);
+    }
+
+    @Override
+    Object beginBatch()
+    {
+        BatchEvent event = new BatchEvent();
+        if (!event.isEnabled())
+            return null;
+        if (batchSampling > 1 && batches.getAndIncrement() % batchSampling != 0)
+            return null;
+        event.begin();
+        return event;
+    }
+
+    @Override
+    void endBatch(Object e, String source, int size, int valid, int rejected)
+    {
+        if (e == null)
+            return;
+        BatchEvent event = (BatchEvent) e;
+        event.end();
+        if (event.shouldCommit())
+        {
+            event.source = source;
+            event.size = size;
+            event.valid = valid;
+            event.rejected = rejected;
+            event.commit();
+        }
+    }
+
+    @Override
+    Object beginChunk()
+    {
+        ChunkEvent event = new ChunkEvent();
+        if (!event.isEnabled())
+            return null;
+        event.begin();
+        return event;
+    }
+
+    @Override
+    void endChunk(Object e, String file, long offset, long bytes, long items, long rejected)
+    {
+        if (e == null)
+            return;
+        ChunkEvent event = (ChunkEvent) e;
+        event.end();
+        if (event.shouldCommit())
+        {
+            event.file = file;
+            event.offset = offset;
+            event.bytes = bytes;
+            event.items = items;
+            event.rejected = rejected;
+            event.commit();
+        }
+    }
+
+    @Override
+    void rejected(String reason)
+    {
+        BurstEvent event = new BurstEvent();
+        if (!event.isEnabled())
+            return;
+
+        long now = System.nanoTime();
+        long number = (now - origin) / burstWindowNanos;
+        long index = number & 0xFFFFFFFFL;
+        long state, count;
+        do
+        {
+            state = window.get();
+            long current = state >>> 32;
+
+            // A rejection timed just before one in a later window counts towards the later window
+            if (current != index && (index - current & 0xFFFFFFFFL) > 0x7FFFFFFFL)
+            {
+                number += current - index & 0xFFFFFFFFL;
+                index = current;
+            }
+            count = current == index ? state & 0xFFFFFFFFL : 0;
+            if (count >= burstThreshold)
+                return;  // Already recorded for this window
+            count++;
+        }
+        while (!window.compareAndSet(state, index << 32 | count));
+
+        if (count < burstThreshold)
+            return;
+        event.rejections = count;
+        event.window = Math.max(now - origin - number * burstWindowNanos, 0);
+        event.sampleReason = reason;
+        event.commit();
+    }
+
+}
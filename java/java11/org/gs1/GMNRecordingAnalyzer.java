@@ -0,0 +1,173 @@
+package org.gs1;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.TreeMap;
+
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+/**
+ * Summarises the GMN events of a Java Flight Recorder recording: the
+ * throughput of batch verification and file processing, and the rejection
+ * bursts with their reasons.
+ *
+ * <p>Usage: java org.gs1.GMNRecordingAnalyzer recording.jfr
+ *
+ * <p>This class requires Java 11 or later.
+ *
+ * @author Copyright (c) 2019-2021 GS1 AISBL.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+public final class GMNRecordingAnalyzer {
+
+    // Totals for the batch events of one source
+    private final static class BatchTotals
+    {
+        long batches, items, valid, rejected;
+        Duration busy = Duration.ZERO;
+        Duration longest = Duration.ZERO;
+    }
+
+    private GMNRecordingAnalyzer() {}
+
+    /**
+     * Summarise the GMN events of a recording.
+     *
+     * @param recording path to the recording file.
+     * @return a human readable summary.
+     * @throws IOException if the recording cannot be read.
+     */
+    public static String summarize(Path recording)
+        throws IOException
+    {
+        Map<String, BatchTotals> batches = new TreeMap<>();
+        long chunks = 0, chunkBytes = 0, chunkItems = 0, chunkRejected = 0;
+        Duration chunkBusy = Duration.ZERO;
+        long bursts = 0, burstRejections = 0;
+        Map<String, Long> reasons = new TreeMap<>();
+        Instant first = null, last = null;
+
+        try (RecordingFile file = new RecordingFile(recording))
+        {
+            while (file.hasMoreEvents())
+            {
+                RecordedEvent e = file.readEvent();
+                String name = e.getEventType().getName();
+                if (!name.startsWith("org.gs1."))
+                    continue;
+
+                if (first == null || e.getStartTime().isBefore(first))
+                    first = e.getStartTime();
+                if (last == null || e.getEndTime().isAfter(last))
+                    last = e.getEndTime();
+
+                switch (name)
+                {
+                    case GMNFlightRecorder.BATCH_EVENT:
+                        BatchTotals t = batches.computeIfAbsent(e.getString("source"), k -> new BatchTotals());
+                        t.batches++;
+                        t.items += e.getInt("size");
+                        t.valid += e.getInt("valid");
+                        t.rejected += e.getInt("rejected");
+                        t.busy = t.busy.plus(e.getDuration());
+                        if (e.getDuration().compareTo(t.longest) > 0)
+                            t.longest = e.getDuration();
+                        break;
+                    case GMNFlightRecorder.CHUNK_EVENT:
+                        chunks++;
+                        chunkBytes += e.getLong("bytes");
+                        chunkItems += e.getLong("items");
+                        chunkRejected += e.getLong("rejected");
+                        chunkBusy = chunkBusy.plus(e.getDuration());
+                        break;
+                    case GMNFlightRecorder.BURST_EVENT:
+                        bursts++;
+                        burstRejections += e.getLong("rejections");
+                        reasons.merge(String.valueOf(e.getString("sampleReason")), 1L, Long::sum);
+                        break;
+                    default:
+                        break;
+                }
+            }
+        }
+
+        StringBuilder out = new StringBuilder();
+        if (first == null)
+            return out.append("No GMN events were recorded.\n").toString();
+
+        out.append(String.format("GMN events spanning %.3fs%n", seconds(Duration.between(first, last))));
+
+        for (Map.Entry<String, BatchTotals> entry : batches.entrySet())
+        {
+            BatchTotals t = entry.getValue();
+            out.append(String.format("%nBatch verification by %s%n", entry.getKey()));
+            out.append(String.format("  batches:         %d (mean size %.1f)%n", t.batches, (double) t.items / t.batches));
+            out.append(String.format("  items:           %d valid, %d not valid, %d rejected%n",
+                                     t.valid, t.items - t.valid - t.rejected, t.rejected));
+            out.append(String.format("  throughput:      %.0f items/s while busy%n", t.items / seconds(t.busy)));
+            out.append(String.format("  longest batch:   %.3fms%n", seconds(t.longest) * 1000));
+        }
+
+        if (chunks > 0)
+        {
+            out.append(String.format("%nFile processing%n"));
+            out.append(String.format("  chunks:          %d%n", chunks));
+            out.append(String.format("  items:           %d (%d rejected)%n", chunkItems, chunkRejected));
+            out.append(String.format("  throughput:      %.1f MB/s, %.0f items/s while busy%n",
+                                     chunkBytes / 1e6 / seconds(chunkBusy), chunkItems / seconds(chunkBusy)));
+        }
+
+        if (bursts > 0)
+        {
+            out.append(String.format("%nRejection bursts%n"));
+            out.append(String.format("  bursts:          %d windows reaching %d rejections%n", bursts, burstRejections / bursts));
+            for (Map.Entry<String, Long> r : reasons.entrySet())
+                out.append(String.format("  %6d x %s%n", r.getValue(), r.getKey()));
+        }
+
+        return out.toString();
+    }
+
+    // Duration in seconds, avoiding division by zero for empty durations
+    private static double seconds(Duration d)
+    {
+        return Math.max(d.toNanos(), 1) / 1e9;
+    }
+
+    /**
+     * Print a summary of the GMN events of a recording.
+     *
+     * @param args the path to the recording file.
+     * @throws IOException if the recording cannot be read.
+     */
+    public static void main(String[] args)
+        throws IOException
+    {
+        if (args.length != 1)
+        {
+            System.err.println("Usage: java org.gs1.GMNRecordingAnalyzer recording.jfr");
+            System.exit(1);
+        }
+        System.out.print(summarize(Paths.get(args[0])));
+    }
+
+}
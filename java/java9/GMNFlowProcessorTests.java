@@ -0,0 +1,184 @@
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/*
+ * These are unit tests for the Reactive Streams processor. They require Java 9
+ * or later.
+ *
+ */
+import org.gs1.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+
+public class GMNFlowProcessorTests
+{
+
+        // Collects results, requesting a fixed number of items at a time
+        private static class Collector implements Flow.Subscriber<GMNFlowProcessor.Result>
+        {
+            final List<GMNFlowProcessor.Result> results = Collections.synchronizedList(new ArrayList<>());
+            final CountDownLatch done = new CountDownLatch(1);
+            final long batch;
+            Flow.Subscription subscription;
+            long received;
+            Throwable error;
+
+            Collector(long batch)
+            {
+                this.batch = batch;
+            }
+
+            public void onSubscribe(Flow.Subscription s)
+            {
+                subscription = s;
+                s.request(batch);
+            }
+
+            public void onNext(GMNFlowProcessor.Result r)
+            {
+                results.add(r);
+                if (++received % batch == 0)
+                    subscription.request(batch);
+            }
+
+            public void onError(Throwable t)
+            {
+                error = t;
+                done.countDown();
+            }
+
+            public void onComplete()
+            {
+                done.countDown();
+            }
+        }
+
+        private static void publish(Flow.Processor<String, ?> processor, List<String> items)
+        {
+            SubmissionPublisher<String> publisher = new SubmissionPublisher<>();
+            publisher.subscribe(processor);
+            for (String item : items)
+                publisher.submit(item);
+            publisher.close();
+        }
+
+        @Test
+        public void verify_RoutesMalformedItemsToSideChannel() throws Exception
+        {
+            List<String> rejected = Collections.synchronizedList(new ArrayList<>());
+            GMNFlowProcessor processor = new GMNFlowProcessor(GMNFlowProcessor.Mode.VERIFY, 4,
+                                                              (item, e) -> rejected.add(item));
+            Collector collector = new Collector(3);
+            processor.subscribe(collector);
+
+            List<String> items = new ArrayList<>();
+            for (int i = 0; i < 10; i++)
+            {
+                items.add("1987654Ad4X4bL5ttr2310c2K");
+                items.add("1987654Ad4X4bL5ttr2310cXK");
+                items.add("12345XX");
+            }
+            publish(processor, items);
+
+            assertTrue(collector.done.await(10, TimeUnit.SECONDS));
+            assertNull(collector.error);
+            assertEquals(20, collector.results.size());
+            assertEquals(10, rejected.size());
+            for (int i = 0; i < 20; i++)
+                assertEquals(i % 2 == 0, collector.results.get(i).isValid());
+        }
+
+        @Test
+        public void verify_PartialChunkOfLiveStreamIsEmitted() throws Exception
+        {
+            GMNFlowProcessor processor = new GMNFlowProcessor(GMNFlowProcessor.Mode.VERIFY, 64, null);
+            Collector collector = new Collector(Long.MAX_VALUE);
+            processor.subscribe(collector);
+
+            try (SubmissionPublisher<String> publisher = new SubmissionPublisher<>())
+            {
+                publisher.subscribe(processor);
+                for (int i = 0; i < 3; i++)
+                    publisher.submit("1987654Ad4X4bL5ttr2310c2K");
+                long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+                while (collector.results.size() < 3 && System.nanoTime() < deadline)
+                    Thread.sleep(1);
+                assertEquals(3, collector.results.size());
+
+                // Items continuing to trickle in are emitted too
+                publisher.submit("1987654Ad4X4bL5ttr2310cXK");
+                while (collector.results.size() < 4 && System.nanoTime() < deadline)
+                    Thread.sleep(1);
+                assertEquals(4, collector.results.size());
+                assertFalse(collector.results.get(3).isValid());
+                assertEquals(1, collector.done.getCount());
+            }
+            assertTrue(collector.done.await(10, TimeUnit.SECONDS));
+            assertNull(collector.error);
+        }
+
+        @Test
+        public void verify_FailingSideChannelTerminatesStream() throws Exception
+        {
+            IllegalStateException failure = new IllegalStateException("Side channel failed");
+            GMNFlowProcessor processor = new GMNFlowProcessor(GMNFlowProcessor.Mode.VERIFY, 4,
+                                                              (item, e) -> { throw failure; });
+            Collector collector = new Collector(100);
+            processor.subscribe(collector);
+
+            List<String> items = new ArrayList<>();
+            for (int i = 0; i < 10; i++)
+                items.add(i == 5 ? "12345XX" : "1987654Ad4X4bL5ttr2310c2K");
+            publish(processor, items);
+
+            assertTrue(collector.done.await(10, TimeUnit.SECONDS));
+            assertSame(failure, collector.error);
+            assertTrue(collector.results.size() <= 4);
+        }
+
+        @Test
+        public void complete_ParallelOrdered() throws Exception
+        {
+            GMNFlowProcessor processor = new GMNFlowProcessor(GMNFlowProcessor.Mode.COMPLETE, 64, 4, true,
+                                                              ForkJoinPool.commonPool(), null);
+            Collector collector = new Collector(100);
+            processor.subscribe(collector);
+
+            List<String> items = new ArrayList<>();
+            for (int i = 0; i < 1000; i++)
+                items.add("12345" + i);
+            publish(processor, items);
+
+            assertTrue(collector.done.await(10, TimeUnit.SECONDS));
+            assertNull(collector.error);
+            assertEquals(1000, collector.results.size());
+            for (int i = 0; i < 1000; i++)
+                assertEquals(GMN.addCheckCharacters("12345" + i), collector.results.get(i).getGmn());
+        }
+
+        @Test
+        public void complete_ParallelUnordered() throws Exception
+        {
+            GMNFlowProcessor processor = new GMNFlowProcessor(GMNFlowProcessor.Mode.COMPLETE, 64, 4, false,
+                                                              ForkJoinPool.commonPool(), null);
+            Collector collector = new Collector(7);
+            processor.subscribe(collector);
+
+            List<String> items = new ArrayList<>();
+            for (int i = 0; i < 1000; i++)
+                items.add("12345" + i);
+            publish(processor, items);
+
+            assertTrue(collector.done.await(10, TimeUnit.SECONDS));
+            assertNull(collector.error);
+            assertEquals(1000, collector.results.size());
+        }
+
+}
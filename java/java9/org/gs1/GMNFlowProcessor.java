@@ -0,0 +1,522 @@
+package org.gs1;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+/**
+ * Reactive Streams processor that verifies or completes the GMNs flowing
+ * through a {@link java.util.concurrent.Flow} pipeline.
+ *
+ * <p>Upstream items are requested in chunks sized to the outstanding
+ * downstream demand, up to a maximum chunk size, and each chunk is processed
+ * in one pass once it has arrived. So that a slow stream is not held up, the
+ * items received so far are processed once {@link #getMaxWaitMicros()} has
+ * elapsed after the first of them arrived, even if more items of the chunk
+ * are still awaited. Items whose format is invalid are passed to a side
+ * channel together with the {@link GS1Exception} describing the problem
+ * rather than terminating the stream. If the side channel throws an
+ * exception, the stream is cancelled and terminated with that exception.
+ *
+ * <p>In parallel mode each chunk is split into rails that are processed
+ * concurrently on an {@link Executor}, with results emitted either in their
+ * original order or as soon as each rail is done. The side channel may then
+ * be called concurrently.
+ *
+ * <p>This class requires Java 9 or later.
+ *
+ * @author Copyright (c) 2019-2021 GS1 AISBL.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+public final class GMNFlowProcessor implements Flow.Processor<String, GMNFlowProcessor.Result> {
+
+    /**
+     * Default maximum time in microseconds that received items wait for the
+     * rest of their chunk.
+     */
+    public final static long DEFAULT_MAX_WAIT_MICROS = 1000;
+
+    /**
+     * The operation applied to each item.
+     */
+    public enum Mode
+    {
+        /** Verify the check character pair of complete GMNs. */
+        VERIFY,
+        /** Complete partial GMNs by appending the check character pair. */
+        COMPLETE
+    }
+
+    /**
+     * Outcome of processing a single well-formed item.
+     */
+    public final static class Result
+    {
+        private final String input;
+        private final String gmn;
+        private final boolean valid;
+
+        Result(String input, String gmn, boolean valid)
+        {
+            this.input = input;
+            this.gmn = gmn;
+            this.valid = valid;
+        }
+
+        /**
+         * @return the item as received from upstream.
+         */
+        public String getInput()
+        {
+            return input;
+        }
+
+        /**
+         * @return the complete GMN, including the check character pair.
+         */
+        public String getGmn()
+        {
+            return gmn;
+        }
+
+        /**
+         * @return true if the GMN has a valid check character pair. Always true when completing.
+         */
+        public boolean isValid()
+        {
+            return valid;
+        }
+
+        @Override
+        public String toString()
+        {
+            return gmn + (valid ? " : valid" : " : not valid");
+        }
+    }
+
+    private final Mode mode;
+    private final int chunkSize;
+    private final int parallelism;
+    private final boolean ordered;
+    private final Executor executor;
+    private final BiConsumer<String, GS1Exception> rejects;
+
+    private volatile Flow.Subscription upstream;
+    private volatile Flow.Subscriber<? super Result> downstream;
+
+    private final AtomicLong requested = new AtomicLong();
+    private final ConcurrentLinkedQueue<Result> ready = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger wip = new AtomicInteger();
+
+    // The chunk being received from upstream, the number of items requested
+    // from upstream but not yet received, and whether the wait for the rest of
+    // the chunk has expired. Guarded by the lock; the generation identifies
+    // the chunk that a wait applies to.
+    private final Object lock = new Object();
+    private String[] chunk;
+    private int chunkFill;
+    private long owed;
+    private boolean lingered;
+    private int generation;
+
+    private volatile long maxWaitMicros = DEFAULT_MAX_WAIT_MICROS;
+    private volatile boolean inFlight;
+    private volatile boolean upstreamDone;
+    private volatile Throwable error;
+    private volatile boolean cancelled;
+    private boolean terminated;
+
+    /**
+     * Creates a sequential processor.
+     *
+     * @param mode whether to verify or complete each item.
+     * @param chunkSize maximum number of items requested from upstream at once.
+     * @param rejects side channel receiving each malformed item and the reason for its rejection, or null to drop them.
+     * @throws IllegalArgumentException if the chunk size is less than 1.
+     */
+    public GMNFlowProcessor(Mode mode, int chunkSize, BiConsumer<String, GS1Exception> rejects)
+    {
+        this(mode, chunkSize, 1, true, ForkJoinPool.commonPool(), rejects);
+    }
+
+    /**
+     * Creates a processor that splits each chunk over parallel rails.
+     *
+     * @param mode whether to verify or complete each item.
+     * @param chunkSize maximum number of items requested from upstream at once.
+     * @param parallelism number of rails each chunk is split over.
+     * @param ordered true to emit results in the order the items were received. Otherwise each rail emits as soon as it is done.
+     * @param executor executor running the rails.
+     * @param rejects side channel receiving each malformed item and the reason for its rejection, or null to drop them.
+     * @throws IllegalArgumentException if the chunk size or parallelism is less than 1.
+     */
+    public GMNFlowProcessor(Mode mode, int chunkSize, int parallelism, boolean ordered,
+                            Executor executor, BiConsumer<String, GS1Exception> rejects)
+    {
+        if (chunkSize < 1)
+            throw new IllegalArgumentException("The chunk size must be at least 1.");
+        if (parallelism < 1)
+            throw new IllegalArgumentException("The parallelism must be at least 1.");
+        this.mode = mode;
+        this.chunkSize = chunkSize;
+        this.parallelism = parallelism;
+        this.ordered = ordered;
+        this.executor = executor;
+        this.rejects = rejects;
+    }
+
+    /**
+     * @return the maximum time in microseconds that received items wait for the rest of their chunk.
+     */
+    public long getMaxWaitMicros()
+    {
+        return maxWaitMicros;
+    }
+
+    /**
+     * Sets the maximum time in microseconds that received items wait for the
+     * rest of their chunk before being processed. Zero processes items as
+     * they arrive.
+     *
+     * @param maxWaitMicros the new maximum wait time, not negative.
+     * @throws IllegalArgumentException if the wait time is negative.
+     */
+    public void setMaxWaitMicros(long maxWaitMicros)
+    {
+        if (maxWaitMicros < 0)
+            throw new IllegalArgumentException("The maximum wait time must not be negative.");
+        this.maxWaitMicros = maxWaitMicros;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super Result> subscriber)
+    {
+        if (subscriber == null)
+            throw new NullPointerException();
+
+        synchronized (this)
+        {
+            if (downstream != null)
+            {
+                subscriber.onSubscribe(new Flow.Subscription() {
+                    public void request(long n) {}
+                    public void cancel() {}
+                });
+                subscriber.onError(new IllegalStateException("GMNFlowProcessor supports a single subscriber."));
+                return;
+            }
+            downstream = subscriber;
+        }
+
+        subscriber.onSubscribe(new Flow.Subscription() {
+            public void request(long n)
+            {
+                if (n <= 0)
+                {
+                    fail(new IllegalArgumentException("Requested a non-positive number of items: " + n));
+                    return;
+                }
+                long r, u;
+                do
+                {
+                    r = requested.get();
+                    u = r + n < 0 ? Long.MAX_VALUE : r + n;
+                }
+                while (!requested.compareAndSet(r, u));
+                drain();
+            }
+
+            public void cancel()
+            {
+                cancelled = true;
+                Flow.Subscription s = upstream;
+                if (s != null)
+                    s.cancel();
+                ready.clear();
+            }
+        });
+        drain();
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription)
+    {
+        if (upstream != null)
+        {
+            subscription.cancel();
+            return;
+        }
+        upstream = subscription;
+        if (cancelled)
+            subscription.cancel();
+        drain();
+    }
+
+    @Override
+    public void onNext(String item)
+    {
+        if (item == null)
+            throw new NullPointerException();
+        boolean complete, first;
+        int gen;
+        synchronized (lock)
+        {
+            if (owed == 0 || cancelled)
+                return;  // Not requested, or cancelled after a failure
+            if (chunk == null)
+                chunk = new String[chunkSize];
+            chunk[chunkFill++] = item;
+            complete = --owed == 0;
+            first = chunkFill == 1;
+            gen = generation;
+        }
+        if (complete)
+            drain();
+        else if (first)
+            linger(gen);
+    }
+
+    // Process the given chunk once the maximum wait time has elapsed, unless
+    // it has already been processed
+    private void linger(int gen)
+    {
+        long wait = maxWaitMicros;
+        Runnable expire = () -> {
+            synchronized (lock)
+            {
+                if (generation != gen)
+                    return;
+                lingered = true;
+            }
+            drain();
+        };
+        if (wait == 0)
+            expire.run();
+        else
+            CompletableFuture.runAsync(expire, CompletableFuture.delayedExecutor(wait, TimeUnit.MICROSECONDS, executor));
+    }
+
+    @Override
+    public void onError(Throwable throwable)
+    {
+        error = throwable;
+        onComplete();
+    }
+
+    @Override
+    public void onComplete()
+    {
+        upstreamDone = true;
+        drain();
+    }
+
+    // Terminate the stream early with the given error
+    private void fail(Throwable t)
+    {
+        Flow.Subscription s = upstream;
+        if (s != null)
+            s.cancel();
+        error = t;
+        upstreamDone = true;
+        synchronized (lock)
+        {
+            chunk = null;
+            chunkFill = 0;
+            owed = 0;
+            generation++;
+        }
+        ready.clear();
+        inFlight = false;
+        drain();
+    }
+
+    // Process the items received of a chunk, then release the next one
+    private void processChunk(String[] items, int n)
+    {
+        if (parallelism == 1 || n < parallelism)
+        {
+            Result[] results = new Result[n];
+            try
+            {
+                process(items, results, 0, n);
+            }
+            catch (RuntimeException e)
+            {
+                // Thrown by the side channel
+                fail(e);
+                return;
+            }
+            for (Result r : results)
+                if (r != null)
+                    ready.offer(r);
+            inFlight = false;
+            drain();
+            return;
+        }
+
+        // Split the chunk over the rails
+        Result[] results = new Result[n];
+        CompletableFuture<?>[] rails = new CompletableFuture<?>[parallelism];
+        for (int rail = 0; rail < parallelism; rail++)
+        {
+            int from = (int) ((long) n * rail / parallelism);
+            int to = (int) ((long) n * (rail + 1) / parallelism);
+            rails[rail] = CompletableFuture.runAsync(() -> {
+                process(items, results, from, to);
+                if (!ordered)
+                {
+                    for (int i = from; i < to; i++)
+                        if (results[i] != null)
+                            ready.offer(results[i]);
+                    drain();
+                }
+            }, executor);
+        }
+        CompletableFuture.allOf(rails).whenComplete((v, t) -> {
+            if (t != null)
+            {
+                fail(t instanceof CompletionException && t.getCause() != null ? t.getCause() : t);
+                return;
+            }
+            if (ordered)
+                for (Result r : results)
+                    if (r != null)
+                        ready.offer(r);
+            inFlight = false;
+            drain();
+        });
+    }
+
+    // Process a range of items, leaving null results for malformed items
+    private void process(String[] items, Result[] results, int from, int to)
+    {
+        Object event = GMNEvents.EVENTS.beginBatch();
+        int valid = 0, rejected = 0;
+        for (int i = from; i < to; i++)
+        {
+            Result r = results[i] = process(items[i]);
+            if (r == null)
+                rejected++;
+            else if (r.isValid())
+                valid++;
+        }
+        GMNEvents.EVENTS.endBatch(event, "GMNFlowProcessor", to - from, valid, rejected);
+    }
+
+    // Verify or complete a single item, diverting it to the side channel if malformed
+    private Result process(String item)
+    {
+        try
+        {
+            if (mode == Mode.VERIFY)
+                return new Result(item, item, GMN.verifyCheckCharacters(item));
+            return new Result(item, GMN.addCheckCharacters(item), true);
+        }
+        catch (GS1Exception e)
+        {
+            if (rejects != null)
+                rejects.accept(item, e);
+            return null;
+        }
+    }
+
+    // Emit ready results against the downstream demand, process a received
+    // chunk once it is complete or has waited long enough, request the next
+    // chunk once the current one has been emitted, and signal termination.
+    // Serialised so that downstream signals never overlap.
+    private void drain()
+    {
+        if (wip.getAndIncrement() != 0)
+            return;
+
+        int missed = 1;
+        while (true)
+        {
+            Flow.Subscriber<? super Result> d = downstream;
+            Flow.Subscription s = upstream;
+            if (d != null && !cancelled && !terminated)
+            {
+                long r = requested.get();
+                long e = 0;
+                while (e != r && !cancelled)
+                {
+                    Result x = ready.poll();
+                    if (x == null)
+                        break;
+                    d.onNext(x);
+                    e++;
+                }
+                if (e != 0 && r != Long.MAX_VALUE)
+                    requested.addAndGet(-e);
+
+                if (!cancelled && !inFlight)
+                {
+                    String[] items = null;
+                    int n = 0;
+                    long request = 0;
+                    boolean idle = false;
+                    synchronized (lock)
+                    {
+                        if (chunkFill > 0 && (owed == 0 || lingered || upstreamDone))
+                        {
+                            items = chunk;
+                            n = chunkFill;
+                            chunk = null;
+                            chunkFill = 0;
+                            lingered = false;
+                            generation++;
+                            inFlight = true;
+                        }
+                        else if (chunkFill == 0 && ready.isEmpty())
+                        {
+                            if (upstreamDone)
+                                idle = true;
+                            else if (owed == 0 && s != null && requested.get() > 0)
+                                request = owed = Math.min(requested.get(), chunkSize);
+                        }
+                    }
+
+                    if (items != null)
+                        processChunk(items, n);
+                    else if (request > 0)
+                        s.request(request);
+                    else if (idle)
+                    {
+                        terminated = true;
+                        Throwable t = error;
+                        if (t != null)
+                            d.onError(t);
+                        else
+                            d.onComplete();
+                    }
+                }
+            }
+
+            missed = wip.addAndGet(-missed);
+            if (missed == 0)
+                break;
+        }
+    }
+
+}
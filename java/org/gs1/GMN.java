@@ -1,5 +1,6 @@
 package org.gs1;
 
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Map;
 import java.util.HashMap;
@@ -56,6 +57,13 @@ public final class GMN {
      */
     private final static Map<Character, Short> cset32value;
 
+    /**
+     * Character code to value tables for cset82 and cset32, used by the
+     * byte-oriented routines. Characters outside of the set map to -1.
+     */
+    private final static byte[] cset82table = new byte[128];
+    private final static byte[] cset32table = new byte[128];
+
     // Initialisation populates the cset82 and cset32 mappings
     static
     {
@@ -68,6 +76,13 @@ public final class GMN {
         for (short i = 0; i < cset32.length(); i++)
             tmp.put(cset32.charAt(i), i);
         cset32value=Collections.unmodifiableMap(tmp);
+
+        Arrays.fill(cset82table, (byte) -1);
+        for (int i = 0; i < cset82.length(); i++)
+            cset82table[cset82.charAt(i)] = (byte) i;
+        Arrays.fill(cset32table, (byte) -1);
+        for (int i = 0; i < cset32.length(); i++)
+            cset32table[cset32.charAt(i)] = (byte) i;
     }
 
     private GMN() {}
@@ -186,6 +201,46 @@ public final class GMN {
         return verifyCheckCharacters(gcp + model + checks);
     }
 
+    /**
+     * Classify a given GMN without throwing an exception, distinguishing the
+     * reasons that its format may be invalid.
+     *
+     * @param gmn a GMN.
+     * @return VALID if the GMN has a valid check character pair, INCORRECT_CHECK if its check character pair is wrong, or the first format problem found.
+     */
+    public static GMNStatus status(String gmn)
+    {
+        byte[] b = bytes(gmn);
+        return status(b, 0, b.length, true);
+    }
+
+    /**
+     * Classify a given GMN, provided as GS1 Company Prefix, model reference and check character components, without throwing an exception.
+     *
+     * @param gcp a GS1 Company Prefix.
+     * @param model a model reference.
+     * @param checks a check character pair, or null to classify the GS1 Company Prefix and model reference alone.
+     * @return VALID if the GMN has a valid check character pair, or is well formed when no check character pair is given, INCORRECT_CHECK if its check character pair is wrong, or the first format problem found.
+     */
+    public static GMNStatus statusGcpModelChecks(String gcp, String model, String checks)
+    {
+        byte[] g = bytes(gcp), m = bytes(model), c = checks == null ? null : bytes(checks);
+        return status(g, 0, g.length, m, 0, m.length, c, 0, c == null ? 0 : c.length);
+    }
+
+    // Characters as single bytes, with those beyond ISO 8859-1 replaced by a
+    // byte outside of every character set
+    private static byte[] bytes(String s)
+    {
+        byte[] b = new byte[s.length()];
+        for (int i = 0; i < b.length; i++)
+        {
+            char c = s.charAt(i);
+            b[i] = (byte) (c < 0x100 ? c : 0xFF);
+        }
+        return b;
+    }
+
     /**
      * Indicate whether each character in a given GMN belongs to the appropriate character set for the character position.
      *
@@ -248,6 +303,146 @@ public final class GMN {
         return out;
     };
 
+    /*
+     * Byte-oriented routines for use by the other classes of this package.
+     *
+     * These operate on ASCII data in place and report problems by status
+     * rather than by raising exceptions, so that bulk processing need not
+     * create a String or exception per GMN. They mirror the checks performed
+     * by _formatChecks and must be kept consistent with them.
+     *
+     */
+
+    /**
+     * Maximum length of a partial GMN, excluding the check character pair.
+     */
+    final static int MAX_PART_LENGTH = weights.length;
+
+    // Value of a character within cset82, or -1 if it is not a member
+    static int cset82Value(int c)
+    {
+        return c >= 0 && c < 128 ? cset82table[c] : -1;
+    }
+
+    // Value of a character within cset32, or -1 if it is not a member
+    static int cset32Value(int c)
+    {
+        return c >= 0 && c < 128 ? cset32table[c] : -1;
+    }
+
+    // Character of cset82 having the given value
+    static char cset82Char(int value)
+    {
+        return cset82.charAt(value);
+    }
+
+    // Character of cset32 having the given value
+    static char cset32Char(int value)
+    {
+        return cset32.charAt(value);
+    }
+
+    // Weight applied to the character at the given position of a partial GMN of the given length
+    static int weight(int position, int length)
+    {
+        return weights[weights.length - length + position];
+    }
+
+    // Modulo 1021 weighted sum of a partial GMN whose characters are all known to belong to cset82
+    static int checkSum(byte[] part, int off, int len)
+    {
+        int offset = weights.length - len;
+        int sum = 0;
+        for (int i = 0; i < len; i++)
+            sum += cset82table[part[off + i]] * weights[offset + i];
+        return sum % 1021;
+    }
+
+    // Classify a partial or complete GMN held as ASCII bytes. A well-formed
+    // partial GMN is reported as VALID.
+    static GMNStatus status(byte[] b, int off, int len, boolean complete)
+    {
+        int maxLength = complete ? weights.length + 2 : weights.length;
+        int minLength = complete ? 8 : 6;
+
+        if (len < minLength)
+            return GMNStatus.TOO_SHORT;
+        if (len > maxLength)
+            return GMNStatus.TOO_LONG;
+
+        for (int i = 0; i < 5; i++)
+        {
+            int c = b[off + i];
+            if (c < '0' || c > '9')
+                return GMNStatus.NON_NUMERIC_GCP;
+        }
+
+        int partLen = complete ? len - 2 : len;
+        if (GMNSwar.firstNonCset82(b, off + 5, partLen - 5) >= 0)
+            return GMNStatus.INVALID_CHARACTER;
+
+        if (!complete)
+            return GMNStatus.VALID;
+
+        int c1 = cset32Value(b[off + partLen] & 0xFF);
+        int c2 = cset32Value(b[off + partLen + 1] & 0xFF);
+        if (c1 < 0 || c2 < 0)
+            return GMNStatus.INVALID_CHECK_CHARACTER;
+
+        return checkSum(b, off, partLen) == c1 * 32 + c2 ? GMNStatus.VALID : GMNStatus.INCORRECT_CHECK;
+    }
+
+    // Modulo 1021 weighted sum of a partial GMN provided as GS1 Company Prefix
+    // and model reference, whose characters are all known to belong to cset82
+    static int checkSum(byte[] gcp, int gcpOff, int gcpLen, byte[] model, int modelOff, int modelLen)
+    {
+        int offset = weights.length - gcpLen - modelLen;
+        int sum = 0;
+        for (int i = 0; i < gcpLen; i++)
+            sum += cset82table[gcp[gcpOff + i]] * weights[offset + i];
+        offset += gcpLen;
+        for (int i = 0; i < modelLen; i++)
+            sum += cset82table[model[modelOff + i]] * weights[offset + i];
+        return sum % 1021;
+    }
+
+    // Classify a GMN provided as GS1 Company Prefix, model reference and
+    // optionally check character components held as ASCII bytes, without
+    // concatenating them. A null checks array indicates a partial GMN, which
+    // is reported as VALID if well formed.
+    static GMNStatus status(byte[] gcp, int gcpOff, int gcpLen,
+                            byte[] model, int modelOff, int modelLen,
+                            byte[] checks, int checksOff, int checksLen)
+    {
+        if (gcpLen < 5)
+            return GMNStatus.GCP_TOO_SHORT;
+        if (gcpLen > 12)
+            return GMNStatus.GCP_TOO_LONG;
+        if (modelLen < 1)
+            return GMNStatus.MODEL_EMPTY;
+        if (GMNSwar.firstNonDigit(gcp, gcpOff, gcpLen) >= 0)
+            return GMNStatus.NON_NUMERIC_GCP;
+        if (checks != null && checksLen != 2)
+            return GMNStatus.CHECK_WRONG_LENGTH;
+
+        // The remaining checks are those of _formatChecks on the whole GMN
+        if (gcpLen + modelLen > weights.length)
+            return GMNStatus.TOO_LONG;
+        if (GMNSwar.firstNonCset82(model, modelOff, modelLen) >= 0)
+            return GMNStatus.INVALID_CHARACTER;
+
+        if (checks == null)
+            return GMNStatus.VALID;
+
+        int c1 = cset32Value(checks[checksOff] & 0xFF);
+        int c2 = cset32Value(checks[checksOff + 1] & 0xFF);
+        if (c1 < 0 || c2 < 0)
+            return GMNStatus.INVALID_CHECK_CHARACTER;
+
+        int sum = checkSum(gcp, gcpOff, gcpLen, model, modelOff, modelLen);
+        return sum == c1 * 32 + c2 ? GMNStatus.VALID : GMNStatus.INCORRECT_CHECK;
+    }
+
     // Perform some local consistency checks on a partial or complete GMN string
     private static void _formatChecks(String input, boolean complete)
         throws GS1Exception
@@ -257,9 +452,9 @@ public final class GMN {
 
         // Verify overall length
         if (input.length() < minLength)
-            throw new GS1Exception("The input is too short. It should be at least " + minLength + " characters long" + ( complete ? "." : " excluding the check character pair." ) );
+            throw _rejected("The input is too short. It should be at least " + minLength + " characters long" + ( complete ? "." : " excluding the check character pair." ) );
         if (input.length() > maxLength)
-            throw new GS1Exception("The input is too long. It should be " + maxLength + " characters maximum" + ( complete ? "." : " excluding the check character pair." ) );
+            throw _rejected("The input is too long. It should be " + maxLength + " characters maximum" + ( complete ? "." : " excluding the check character pair." ) );
 
         // Verify that the content is in the correct encodable character set
         boolean[] goodCharacters = goodCharacterPositions(input, complete);
@@ -267,16 +462,23 @@ public final class GMN {
             if (!goodCharacters[i])
             {
                 if (i < 5)
-                    throw new GS1Exception("GMN starts with the GS1 Company Prefix. At least the first five characters must be digits.");
+                    throw _rejected("GMN starts with the GS1 Company Prefix. At least the first five characters must be digits.");
                 else if (!complete || i < input.length() - 2)
-                    throw new GS1Exception("Invalid character at position " + (i + 1) + ": " + input.charAt(i));
+                    throw _rejected("Invalid character at position " + (i + 1) + ": " + input.charAt(i));
                 else
-                    throw new GS1Exception("Invalid check character at position " + (i + 1) + ": " + input.charAt(i));
+                    throw _rejected("Invalid check character at position " + (i + 1) + ": " + input.charAt(i));
             }
 
         return;
     }
 
+    // Create the exception for rejected input, reporting the rejection to any flight recording
+    private static GS1Exception _rejected(String message)
+    {
+        GMNEvents.EVENTS.rejected(message);
+        return new GS1Exception(message);
+    }
+
     // Perform some local consistency checks on the input provided as GS1 Company Prefix and model reference
     private static void _formatChecksGcpModel(String gcp, String model)
         throws GS1Exception
@@ -291,23 +493,23 @@ public final class GMN {
 
          // Verify that the GS1 Company Prefix has the correct length
          if (gcp.length() < 5)
-             throw new GS1Exception("The GS1 Company Prefix is too short. It should be at least 5 digits long.");
+             throw _rejected("The GS1 Company Prefix is too short. It should be at least 5 digits long.");
          if (gcp.length() > 12)
-             throw new GS1Exception("The GS1 Company Prefix is too long. It should not be more than 12 digits long.");
+             throw _rejected("The GS1 Company Prefix is too long. It should not be more than 12 digits long.");
 
          // Verify that the model reference contains at least one character
          if (model.length() < 1)
-             throw new GS1Exception("The model reference must contain at least one character.");
+             throw _rejected("The model reference must contain at least one character.");
 
          // Verify that the GS1 Company Prefix is numeric only
          boolean[] goodCharacters = goodCharacterPositionsGcpModel(gcp, model);
          for (int i = 0; i < gcp.length(); i++)
              if (!goodCharacters[i])
-                 throw new GS1Exception("The GS1 Company Prefix must only contain digits.");
+                 throw _rejected("The GS1 Company Prefix must only contain digits.");
 
          // If given, verify that the check is the correct length
          if (checks != null && checks.length() != 2)
-            throw new GS1Exception("The check must be 2 characters long.");
+            throw _rejected("The check must be 2 characters long.");
 
          // Perform more format checks on the overall GMN
          if (checks == null)
@@ -0,0 +1,388 @@
+package org.gs1;
+
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Asynchronous GMN verifier that coalesces concurrent requests into
+ * micro-batches which are verified together by a single worker thread.
+ *
+ * <p>Requests are enqueued on a lock-free multiple-producer, single-consumer
+ * queue. The worker collects up to {@link #getMaxBatchSize()} requests, waiting
+ * no longer than {@link #getMaxWaitMicros()} after the first request of a
+ * batch has arrived, then verifies the whole batch in one loop.
+ *
+ * <p>The futures are completed on the worker thread, so dependent actions
+ * that are not registered with the asynchronous methods of
+ * {@link CompletableFuture} delay the following batches. Such actions should
+ * be brief or use the asynchronous methods.
+ *
+ * @author Copyright (c) 2019-2021 GS1 AISBL.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+public final class GMNBatchVerifier implements AutoCloseable {
+
+    /**
+     * Default maximum number of requests that are verified together.
+     */
+    public final static int DEFAULT_MAX_BATCH_SIZE = 256;
+
+    /**
+     * Default maximum time in microseconds that a batch is held open waiting
+     * for further requests.
+     */
+    public final static long DEFAULT_MAX_WAIT_MICROS = 50;
+
+    // A pending verification request
+    private final static class Request
+    {
+        final String gmn;
+        final CompletableFuture<Boolean> future = new CompletableFuture<>();
+        final long enqueued = System.nanoTime();
+
+        Request(String gmn)
+        {
+            this.gmn = gmn;
+        }
+    }
+
+    private final ConcurrentLinkedQueue<Request> queue = new ConcurrentLinkedQueue<>();
+    private final Thread worker;
+
+    private volatile int maxBatchSize;
+    private volatile long maxWaitMicros;
+    private volatile boolean closed;
+    private volatile boolean parked;
+
+    // Statistics are only ever written by the worker thread
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong largestBatch = new AtomicLong();
+    private final AtomicLong totalLatencyNanos = new AtomicLong();
+    private final AtomicLong maxLatencyNanos = new AtomicLong();
+
+    /**
+     * Creates a verifier using the default batch size and wait time.
+     */
+    public GMNBatchVerifier()
+    {
+        this(DEFAULT_MAX_BATCH_SIZE, DEFAULT_MAX_WAIT_MICROS);
+    }
+
+    /**
+     * Creates a verifier using the given batch size and wait time.
+     *
+     * @param maxBatchSize maximum number of requests verified together.
+     * @param maxWaitMicros maximum time in microseconds to hold a batch open for further requests.
+     * @throws IllegalArgumentException if either limit is out of range.
+     */
+    public GMNBatchVerifier(int maxBatchSize, long maxWaitMicros)
+    {
+        setMaxBatchSize(maxBatchSize);
+        setMaxWaitMicros(maxWaitMicros);
+        worker = new Thread(this::run, "gmn-batch-verifier");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Asynchronously verify that a given GMN has a correct check character pair.
+     *
+     * <p>The returned future completes with the result of
+     * {@link GMN#verifyCheckCharacters(String)}, or exceptionally with a
+     * {@link GS1Exception} if the format of the given GMN is invalid.
+     *
+     * @param gmn a GMN.
+     * @return a future for whether the GMN has a valid check character pair.
+     * @throws NullPointerException if the GMN is null.
+     * @throws IllegalStateException if the verifier has been closed.
+     */
+    public CompletableFuture<Boolean> verifyAsync(String gmn)
+    {
+        Objects.requireNonNull(gmn, "The GMN must not be null.");
+        if (closed)
+            throw new IllegalStateException("The verifier has been closed.");
+
+        Request request = new Request(gmn);
+        queue.offer(request);
+
+        // Withdraw the request if the worker may have exited in the meantime
+        if (closed && queue.remove(request))
+            throw new IllegalStateException("The verifier has been closed.");
+
+        if (parked)
+            LockSupport.unpark(worker);
+        return request.future;
+    }
+
+    /**
+     * @return the maximum number of requests that are verified together.
+     */
+    public int getMaxBatchSize()
+    {
+        return maxBatchSize;
+    }
+
+    /**
+     * Sets the maximum number of requests that are verified together.
+     *
+     * @param maxBatchSize the new maximum batch size, at least 1.
+     * @throws IllegalArgumentException if the batch size is less than 1.
+     */
+    public void setMaxBatchSize(int maxBatchSize)
+    {
+        if (maxBatchSize < 1)
+            throw new IllegalArgumentException("The maximum batch size must be at least 1.");
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * @return the maximum time in microseconds that a batch is held open.
+     */
+    public long getMaxWaitMicros()
+    {
+        return maxWaitMicros;
+    }
+
+    /**
+     * Sets the maximum time in microseconds that a batch is held open waiting
+     * for further requests. Zero verifies whatever is queued immediately.
+     *
+     * @param maxWaitMicros the new maximum wait time, not negative.
+     * @throws IllegalArgumentException if the wait time is negative.
+     */
+    public void setMaxWaitMicros(long maxWaitMicros)
+    {
+        if (maxWaitMicros < 0)
+            throw new IllegalArgumentException("The maximum wait time must not be negative.");
+        this.maxWaitMicros = maxWaitMicros;
+    }
+
+    /**
+     * @return a snapshot of the batch size and latency statistics.
+     */
+    public Statistics getStatistics()
+    {
+        return new Statistics(batches.get(), requests.get(), largestBatch.get(),
+                              totalLatencyNanos.get(), maxLatencyNanos.get());
+    }
+
+    /**
+     * Stops accepting requests. Requests that were already accepted are
+     * verified before the worker thread exits. When called from a dependent
+     * action running on the worker thread, returns without waiting for it.
+     */
+    @Override
+    public void close()
+    {
+        closed = true;
+        LockSupport.unpark(worker);
+        if (Thread.currentThread() == worker)
+            return;
+        try
+        {
+            worker.join();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Worker loop: form batches from the queue and verify them
+    private void run()
+    {
+        Request[] batch = new Request[maxBatchSize];
+        while (true)
+        {
+            int limit = maxBatchSize;
+            if (batch.length < limit)
+                batch = new Request[limit];
+
+            // Wait for the first request of the batch
+            Request first = queue.poll();
+            if (first == null)
+            {
+                if (closed && queue.isEmpty())
+                    return;
+                parked = true;
+                if (queue.isEmpty() && !closed)
+                    LockSupport.park(this);
+                parked = false;
+                continue;
+            }
+            batch[0] = first;
+            int n = 1;
+
+            // Fill the batch until it is full or the wait time has elapsed
+            long deadline = first.enqueued + TimeUnit.MICROSECONDS.toNanos(maxWaitMicros);
+            while (n < limit)
+            {
+                Request next = queue.poll();
+                if (next != null)
+                {
+                    batch[n++] = next;
+                    continue;
+                }
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0 || closed)
+                    break;
+                parked = true;
+                if (queue.isEmpty())
+                    LockSupport.parkNanos(this, remaining);
+                parked = false;
+            }
+
+            process(batch, n);
+        }
+    }
+
+    // Verify a batch of requests in one pass and record statistics
+    private void process(Request[] batch, int n)
+    {
+        Object event = GMNEvents.EVENTS.beginBatch();
+        boolean[] results = new boolean[n];
+        Exception[] errors = new Exception[n];
+        int valid = 0, rejected = 0;
+        for (int i = 0; i < n; i++)
+        {
+            try
+            {
+                if (results[i] = GMN.verifyCheckCharacters(batch[i].gmn))
+                    valid++;
+            }
+            catch (GS1Exception | RuntimeException e)
+            {
+                // Fail only this request, keeping the worker alive
+                errors[i] = e;
+                rejected++;
+            }
+        }
+        GMNEvents.EVENTS.endBatch(event, "GMNBatchVerifier", n, valid, rejected);
+
+        // Complete the futures only once the batch has been verified so that
+        // dependent actions do not run within the verification loop
+        long now = System.nanoTime();
+        long latency = 0, maxLatency = 0;
+        for (int i = 0; i < n; i++)
+        {
+            Request request = batch[i];
+            batch[i] = null;
+            long l = now - request.enqueued;
+            latency += l;
+            if (l > maxLatency)
+                maxLatency = l;
+            if (errors[i] != null)
+                request.future.completeExceptionally(errors[i]);
+            else
+                request.future.complete(results[i]);
+        }
+
+        batches.incrementAndGet();
+        requests.addAndGet(n);
+        totalLatencyNanos.addAndGet(latency);
+        if (n > largestBatch.get())
+            largestBatch.set(n);
+        if (maxLatency > maxLatencyNanos.get())
+            maxLatencyNanos.set(maxLatency);
+    }
+
+    /**
+     * Snapshot of the batch size and latency statistics of a verifier.
+     */
+    public final static class Statistics
+    {
+        private final long batches;
+        private final long requests;
+        private final long largestBatch;
+        private final long totalLatencyNanos;
+        private final long maxLatencyNanos;
+
+        private Statistics(long batches, long requests, long largestBatch,
+                           long totalLatencyNanos, long maxLatencyNanos)
+        {
+            this.batches = batches;
+            this.requests = requests;
+            this.largestBatch = largestBatch;
+            this.totalLatencyNanos = totalLatencyNanos;
+            this.maxLatencyNanos = maxLatencyNanos;
+        }
+
+        /**
+         * @return number of batches verified.
+         */
+        public long getBatches()
+        {
+            return batches;
+        }
+
+        /**
+         * @return number of requests verified.
+         */
+        public long getRequests()
+        {
+            return requests;
+        }
+
+        /**
+         * @return size of the largest batch verified.
+         */
+        public long getLargestBatch()
+        {
+            return largestBatch;
+        }
+
+        /**
+         * @return mean number of requests per batch.
+         */
+        public double getMeanBatchSize()
+        {
+            return batches == 0 ? 0 : (double) requests / batches;
+        }
+
+        /**
+         * @return mean time in nanoseconds from enqueuing a request to its completion.
+         */
+        public double getMeanLatencyNanos()
+        {
+            return requests == 0 ? 0 : (double) totalLatencyNanos / requests;
+        }
+
+        /**
+         * @return longest time in nanoseconds from enqueuing a request to its completion.
+         */
+        public long getMaxLatencyNanos()
+        {
+            return maxLatencyNanos;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "batches=" + batches + ", requests=" + requests +
+                   ", meanBatchSize=" + String.format("%.1f", getMeanBatchSize()) +
+                   ", largestBatch=" + largestBatch +
+                   ", meanLatencyMicros=" + String.format("%.1f", getMeanLatencyNanos() / 1000) +
+                   ", maxLatencyMicros=" + maxLatencyNanos / 1000;
+        }
+    }
+
+}
@@ -0,0 +1,496 @@
+package org.gs1;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Generator of reproducible synthetic corpora of valid and deliberately
+ * invalid GMNs, for load testing systems that consume GMNs and as input to
+ * benchmarks.
+ *
+ * <p>The sequence of GMNs produced is entirely determined by the seed and the
+ * configured distributions of GS1 Company Prefix length, model reference
+ * length, character classes and error kinds. The error kinds are the
+ * {@link GMNStatus} values that apply to a whole GMN, so that each generated
+ * GMN is known to provoke a particular outcome when verified.
+ *
+ * <p>Instances are not thread safe. Use {@link #split()} to obtain
+ * independent generators for use by other threads.
+ *
+ * @author Copyright (c) 2019-2021 GS1 AISBL.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+public final class GMNCorpusGenerator {
+
+    /**
+     * Size of buffer sufficient to hold any single generated GMN.
+     */
+    public final static int MAX_LENGTH = 32;
+
+    /**
+     * Kinds of GMN that can be generated, being the outcomes of verifying a whole GMN.
+     */
+    public final static List<GMNStatus> KINDS = Collections.unmodifiableList(Arrays.asList(
+        GMNStatus.VALID, GMNStatus.INCORRECT_CHECK, GMNStatus.TOO_SHORT, GMNStatus.TOO_LONG,
+        GMNStatus.NON_NUMERIC_GCP, GMNStatus.INVALID_CHARACTER, GMNStatus.INVALID_CHECK_CHARACTER));
+
+    /**
+     * Character classes of the model reference, in the order used by {@link #setCharsetMix}.
+     */
+    private final static byte[][] classes = new byte[4][];
+
+    /**
+     * Characters outside of cset82, used to inject invalid characters.
+     */
+    private final static byte[] badCharacters = " #$@[\\]^`{|}~".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * Characters of cset82 that are not in cset32, used to inject invalid check characters.
+     */
+    private final static byte[] badCheckCharacters;
+
+    /**
+     * Characters of cset82 that are not digits, used to inject a non-numeric GS1 Company Prefix.
+     */
+    private final static byte[] nonDigits;
+
+    // Initialisation partitions cset82 into the character classes
+    static
+    {
+        StringBuilder digits = new StringBuilder(), upper = new StringBuilder(),
+                      lower = new StringBuilder(), symbols = new StringBuilder(),
+                      notCset32 = new StringBuilder(), notDigit = new StringBuilder();
+        for (int i = 0; i < 82; i++)
+        {
+            char c = GMN.cset82Char(i);
+            if (c >= '0' && c <= '9')
+                digits.append(c);
+            else if (c >= 'A' && c <= 'Z')
+                upper.append(c);
+            else if (c >= 'a' && c <= 'z')
+                lower.append(c);
+            else
+                symbols.append(c);
+            if (GMN.cset32Value(c) < 0)
+                notCset32.append(c);
+            if (c < '0' || c > '9')
+                notDigit.append(c);
+        }
+        classes[0] = digits.toString().getBytes(StandardCharsets.US_ASCII);
+        classes[1] = upper.toString().getBytes(StandardCharsets.US_ASCII);
+        classes[2] = lower.toString().getBytes(StandardCharsets.US_ASCII);
+        classes[3] = symbols.toString().getBytes(StandardCharsets.US_ASCII);
+        badCheckCharacters = notCset32.toString().getBytes(StandardCharsets.US_ASCII);
+        nonDigits = notDigit.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private final SplittableRandom random;
+
+    // Cumulative distributions
+    private double[] gcpLengths = cumulative(new double[] {1, 1, 1, 1, 1, 1, 1, 1});
+    private double[] charsetMix = cumulative(new double[] {1, 1, 1, 0});
+    private double[] errorKinds = cumulative(validOnly());
+
+    private int minModelLength = 1;
+    private int maxModelLength = GMN.MAX_PART_LENGTH - 5;
+    private boolean labelled;
+
+    private GMNStatus lastStatus;
+
+    /**
+     * Creates a generator of valid GMNs with default distributions.
+     *
+     * @param seed seed that determines the sequence of GMNs.
+     */
+    public GMNCorpusGenerator(long seed)
+    {
+        this(new SplittableRandom(seed));
+    }
+
+    private GMNCorpusGenerator(SplittableRandom random)
+    {
+        this.random = random;
+    }
+
+    /**
+     * Returns a new generator with the same configuration whose sequence is
+     * independent of this one. Splitting a generator in the same state yields
+     * the same new sequence.
+     *
+     * @return the new generator.
+     */
+    public GMNCorpusGenerator split()
+    {
+        GMNCorpusGenerator g = new GMNCorpusGenerator(random.split());
+        g.gcpLengths = gcpLengths;
+        g.charsetMix = charsetMix;
+        g.errorKinds = errorKinds;
+        g.minModelLength = minModelLength;
+        g.maxModelLength = maxModelLength;
+        g.labelled = labelled;
+        return g;
+    }
+
+    /**
+     * Sets the relative frequency of each GS1 Company Prefix length.
+     *
+     * @param weights eight weights for the lengths 5 to 12.
+     * @throws IllegalArgumentException if the weights are not valid.
+     */
+    public void setGcpLengthWeights(double... weights)
+    {
+        if (weights.length != 8)
+            throw new IllegalArgumentException("Eight weights are required for the GS1 Company Prefix lengths 5 to 12.");
+        gcpLengths = cumulative(weights);
+    }
+
+    /**
+     * Sets the range of model reference lengths, which are uniformly
+     * distributed. The maximum is reduced where necessary to keep within the
+     * overall length of a GMN.
+     *
+     * @param min minimum model reference length, at least 1.
+     * @param max maximum model reference length.
+     * @throws IllegalArgumentException if the range is not valid.
+     */
+    public void setModelLengthRange(int min, int max)
+    {
+        if (min < 1 || max < min || min > GMN.MAX_PART_LENGTH - 5)
+            throw new IllegalArgumentException("The model reference length range is not valid.");
+        minModelLength = min;
+        maxModelLength = max;
+    }
+
+    /**
+     * Sets the relative frequency of each class of character within the model reference.
+     *
+     * @param digits weight for digits.
+     * @param upper weight for upper case letters.
+     * @param lower weight for lower case letters.
+     * @param symbols weight for the remaining symbols of cset82.
+     * @throws IllegalArgumentException if the weights are not valid.
+     */
+    public void setCharsetMix(double digits, double upper, double lower, double symbols)
+    {
+        charsetMix = cumulative(new double[] {digits, upper, lower, symbols});
+    }
+
+    /**
+     * Sets the relative frequency of each kind of error. Only valid GMNs are
+     * generated by default.
+     *
+     * @param status the kind of GMN to generate, one of {@link #KINDS}.
+     * @param weight relative frequency of the given kind.
+     * @throws IllegalArgumentException if the kind cannot be generated, the weight is negative or all weights would be zero.
+     */
+    public void setErrorWeight(GMNStatus status, double weight)
+    {
+        int k = KINDS.indexOf(status);
+        if (k < 0)
+            throw new IllegalArgumentException("GMNs having status " + status + " cannot be generated.");
+
+        double[] w = new double[errorKinds.length];
+        for (int i = 0; i < w.length; i++)
+            w[i] = errorKinds[i] - (i == 0 ? 0 : errorKinds[i - 1]);
+        w[k] = weight;
+        errorKinds = cumulative(w);
+    }
+
+    /**
+     * Sets whether lines written to files are labelled with the numeric code
+     * of the expected {@link GMNStatus}, following a tab.
+     *
+     * @param labelled true to label each line.
+     */
+    public void setLabelled(boolean labelled)
+    {
+        this.labelled = labelled;
+    }
+
+    /**
+     * @return the expected outcome of verifying the GMN most recently generated.
+     */
+    public GMNStatus lastStatus()
+    {
+        return lastStatus;
+    }
+
+    /**
+     * Generate the next GMN as a String.
+     *
+     * @return the next GMN.
+     */
+    public String next()
+    {
+        byte[] buf = new byte[MAX_LENGTH];
+        int len = next(buf, 0);
+        return new String(buf, 0, len, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Generate the next GMN as ASCII bytes.
+     *
+     * @param buf buffer receiving the GMN, having at least {@link #MAX_LENGTH} bytes available from the offset.
+     * @param off offset at which to write the GMN.
+     * @return the length of the GMN.
+     */
+    public int next(byte[] buf, int off)
+    {
+        GMNStatus kind = KINDS.get(pick(errorKinds));
+        lastStatus = kind;
+
+        int gcpLen = 5 + pick(gcpLengths);
+        int partLen;
+        switch (kind)
+        {
+            case TOO_SHORT:
+                return fill(buf, off, 5, 1 + random.nextInt(7));
+            case TOO_LONG:
+                partLen = GMN.MAX_PART_LENGTH + 1 + random.nextInt(5);
+                fill(buf, off, gcpLen, partLen);
+                buf[off + partLen] = (byte) GMN.cset32Char(random.nextInt(32));
+                buf[off + partLen + 1] = (byte) GMN.cset32Char(random.nextInt(32));
+                return partLen + 2;
+            default:
+                int maxModel = Math.min(maxModelLength, GMN.MAX_PART_LENGTH - gcpLen);
+                int minModel = Math.min(minModelLength, maxModel);
+                partLen = gcpLen + minModel + random.nextInt(maxModel - minModel + 1);
+                fill(buf, off, gcpLen, partLen);
+        }
+
+        int sum = GMN.checkSum(buf, off, partLen);
+        if (kind == GMNStatus.INCORRECT_CHECK)
+            sum = (sum + 1 + random.nextInt(1023)) % 1024;
+        buf[off + partLen] = (byte) GMN.cset32Char(sum / 32);
+        buf[off + partLen + 1] = (byte) GMN.cset32Char(sum % 32);
+
+        switch (kind)
+        {
+            case NON_NUMERIC_GCP:
+                buf[off + random.nextInt(5)] = nonDigits[random.nextInt(nonDigits.length)];
+                break;
+            case INVALID_CHARACTER:
+                buf[off + 5 + random.nextInt(partLen - 5)] = badCharacters[random.nextInt(badCharacters.length)];
+                break;
+            case INVALID_CHECK_CHARACTER:
+                buf[off + partLen + random.nextInt(2)] = badCheckCharacters[random.nextInt(badCheckCharacters.length)];
+                break;
+            default:
+                break;
+        }
+        return partLen + 2;
+    }
+
+    /**
+     * Write newline separated GMNs to a number of files concurrently. The
+     * content of each file is determined by the state of this generator, the
+     * file count and the index of the file, but not by the number of threads.
+     *
+     * @param dir directory in which to create the files.
+     * @param prefix prefix of the file names, which are suffixed by the file index.
+     * @param files number of files to write.
+     * @param gmnsPerFile number of GMNs to write to each file.
+     * @param threads number of threads writing files.
+     * @return the paths of the files written.
+     * @throws IOException if a file cannot be written.
+     * @throws IllegalArgumentException if the number of files or threads is not positive, or the number of GMNs is negative.
+     */
+    public List<Path> writeFiles(Path dir, String prefix, int files, long gmnsPerFile, int threads)
+        throws IOException
+    {
+        if (files < 1 || threads < 1)
+            throw new IllegalArgumentException("The number of files and threads must be positive.");
+        if (gmnsPerFile < 0)
+            throw new IllegalArgumentException("The number of GMNs per file must not be negative.");
+
+        List<Path> paths = new ArrayList<>();
+        List<GMNCorpusGenerator> generators = new ArrayList<>();
+        for (int i = 0; i < files; i++)
+        {
+            paths.add(dir.resolve(prefix + i + ".txt"));
+            generators.add(split());
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try
+        {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < files; i++)
+            {
+                Path path = paths.get(i);
+                GMNCorpusGenerator g = generators.get(i);
+                futures.add(pool.submit(() -> {
+                    Object event = GMNEvents.EVENTS.beginChunk();
+                    try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(path), 1 << 20))
+                    {
+                        g.write(out, gmnsPerFile);
+                    }
+                    GMNEvents.EVENTS.endChunk(event, path.toString(), 0, Files.size(path), gmnsPerFile, 0);
+                    return null;
+                }));
+            }
+            for (Future<?> f : futures)
+                f.get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while writing the corpus.", e);
+        }
+        catch (ExecutionException e)
+        {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            if (e.getCause() instanceof Error)
+                throw (Error) e.getCause();
+            throw new IOException(e.getCause());
+        }
+        finally
+        {
+            pool.shutdownNow();
+        }
+        return paths;
+    }
+
+    /**
+     * Write newline separated GMNs to a stream.
+     *
+     * @param out the stream to write to, which should be buffered.
+     * @param count number of GMNs to write.
+     * @throws IOException if the stream cannot be written.
+     */
+    public void write(OutputStream out, long count)
+        throws IOException
+    {
+        byte[] line = new byte[MAX_LENGTH + 4];
+        for (long i = 0; i < count; i++)
+        {
+            int len = next(line, 0);
+            if (labelled)
+            {
+                line[len++] = '\t';
+                for (byte c : Integer.toString(lastStatus.code()).getBytes(StandardCharsets.US_ASCII))
+                    line[len++] = c;
+            }
+            line[len++] = '\n';
+            out.write(line, 0, len);
+        }
+    }
+
+    // Fill a buffer with a GS1 Company Prefix followed by model reference characters
+    private int fill(byte[] buf, int off, int gcpLen, int len)
+    {
+        for (int i = 0; i < gcpLen && i < len; i++)
+            buf[off + i] = (byte) ('0' + random.nextInt(10));
+        for (int i = gcpLen; i < len; i++)
+        {
+            byte[] cls = classes[pick(charsetMix)];
+            buf[off + i] = cls[random.nextInt(cls.length)];
+        }
+        return len;
+    }
+
+    // Select an index at random according to a cumulative distribution
+    private int pick(double[] cumulative)
+    {
+        double r = random.nextDouble() * cumulative[cumulative.length - 1];
+        int i = 0;
+        while (i < cumulative.length - 1 && r >= cumulative[i])
+            i++;
+        return i;
+    }
+
+    // Error kind weights generating only valid GMNs
+    private static double[] validOnly()
+    {
+        double[] w = new double[KINDS.size()];
+        w[0] = 1;
+        return w;
+    }
+
+    // Convert weights into a cumulative distribution
+    private static double[] cumulative(double[] weights)
+    {
+        double[] c = new double[weights.length];
+        double sum = 0;
+        for (int i = 0; i < weights.length; i++)
+        {
+            if (!(weights[i] >= 0))
+                throw new IllegalArgumentException("Weights must not be negative.");
+            sum += weights[i];
+            c[i] = sum;
+        }
+        if (sum <= 0)
+            throw new IllegalArgumentException("At least one weight must be positive.");
+        return c;
+    }
+
+    /**
+     * Write a corpus of GMNs to files from the command line.
+     *
+     * <p>Usage: java org.gs1.GMNCorpusGenerator directory files gmnsPerFile [seed [errorFraction]]
+     *
+     * @param args the command line arguments.
+     * @throws IOException if a file cannot be written.
+     */
+    public static void main(String[] args)
+        throws IOException
+    {
+        if (args.length < 3 || args.length > 5)
+        {
+            System.err.println("Usage: java org.gs1.GMNCorpusGenerator directory files gmnsPerFile [seed [errorFraction]]");
+            System.exit(1);
+        }
+
+        GMNCorpusGenerator g = new GMNCorpusGenerator(args.length > 3 ? Long.parseLong(args[3]) : 0);
+        if (args.length > 4)
+        {
+            // Spread the errors evenly over the kinds of error
+            double errors = Double.parseDouble(args[4]);
+            for (int i = 1; i < KINDS.size(); i++)
+                g.setErrorWeight(KINDS.get(i), errors / (KINDS.size() - 1));
+            g.setErrorWeight(GMNStatus.VALID, 1 - errors);
+            g.setLabelled(true);
+        }
+
+        int files = Integer.parseInt(args[1]);
+        Path dir = Files.createDirectories(Paths.get(args[0]));
+        long start = System.nanoTime();
+        List<Path> paths = g.writeFiles(dir, "gmn-", files, Long.parseLong(args[2]),
+                                        Math.min(files, Runtime.getRuntime().availableProcessors()));
+        double secs = (System.nanoTime() - start) / 1e9;
+        System.out.println("Wrote " + files * Long.parseLong(args[2]) + " GMNs to " + paths.size() +
+                           " files in " + String.format("%.2f", secs) + "s");
+    }
+
+}
@@ -0,0 +1,603 @@
+package org.gs1;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Streaming processor for CSV or TSV files having separate GS1 Company Prefix,
+ * model reference and, optionally, check character pair columns.
+ *
+ * <p>Each record of the input is copied to the output with two columns
+ * appended: the check character pair calculated from the GS1 Company Prefix
+ * and model reference, which is empty if these are invalid, and the
+ * {@link GMNStatus} code of the row. Where a check character pair column is
+ * configured the status reflects verification of the given check character
+ * pair, so that an empty field is reported as CHECK_WRONG_LENGTH. Otherwise,
+ * or where a record ends before that column, the status reflects the format
+ * of the GS1 Company Prefix and model reference alone.
+ *
+ * <p>The input is read in large chunks split at record boundaries. Chunks are
+ * parsed and validated concurrently, with fields referenced as offsets into
+ * the chunk rather than copied, then written out in their original order.
+ * Fields may be quoted, with a quote within a quoted field being doubled. A
+ * quote only opens a quoted field at the start of the field, so that quotes
+ * within unquoted fields, which are valid in model references, are taken
+ * literally. Quoting can be disabled, as is usual for TSV files.
+ *
+ * @author Copyright (c) 2019-2021 GS1 AISBL.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+public final class GMNCsvProcessor {
+
+    /**
+     * Size of the scratch buffer used for fields that contain escaped quotes.
+     * Longer fields are always too long to be valid so need not be copied in full.
+     */
+    private final static int FIELD_SCRATCH = 64;
+
+    // A chunk of input and the corresponding output
+    private final static class Chunk
+    {
+        byte[] in;
+        int len;
+        long offset;
+        boolean first;
+        byte[] out;
+        int outLen;
+        long rows;
+        long[] counts = new long[GMNStatus.values().length];
+
+        Chunk(int size)
+        {
+            in = new byte[size];
+            out = new byte[size + size / 2];
+        }
+    }
+
+    // A field of the current record, referenced within a buffer
+    private final static class Field
+    {
+        byte[] buf;
+        int off;
+        int len;
+        final byte[] scratch = new byte[FIELD_SCRATCH];
+    }
+
+    private byte delimiter = ',';
+    private byte quote = '"';
+    private boolean quoting = true;
+    private boolean header;
+    private int gcpColumn = 0;
+    private int modelColumn = 1;
+    private int checksColumn = 2;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private int chunkSize = 1 << 22;
+
+    /**
+     * Creates a processor for comma separated files having GS1 Company Prefix,
+     * model reference and check character pair columns in that order and no
+     * header record.
+     */
+    public GMNCsvProcessor()
+    {
+    }
+
+    /**
+     * Sets the field delimiter, such as ',' for CSV or '\t' for TSV.
+     *
+     * @param delimiter the field delimiter.
+     * @throws IllegalArgumentException if the delimiter is not an ASCII character or is a line terminator.
+     */
+    public void setDelimiter(char delimiter)
+    {
+        if (delimiter > 127 || delimiter == '\n' || delimiter == '\r')
+            throw new IllegalArgumentException("The delimiter must be an ASCII character other than a line terminator.");
+        this.delimiter = (byte) delimiter;
+    }
+
+    /**
+     * Sets the quote character.
+     *
+     * @param quote the quote character.
+     * @throws IllegalArgumentException if the quote is not an ASCII character or is a line terminator.
+     */
+    public void setQuote(char quote)
+    {
+        if (quote > 127 || quote == '\n' || quote == '\r')
+            throw new IllegalArgumentException("The quote must be an ASCII character other than a line terminator.");
+        this.quote = (byte) quote;
+    }
+
+    /**
+     * Sets whether fields may be quoted. Without quoting, quote characters
+     * are always taken literally and records cannot span lines.
+     *
+     * @param quoting true if fields may be quoted, which is the default.
+     */
+    public void setQuoting(boolean quoting)
+    {
+        this.quoting = quoting;
+    }
+
+    /**
+     * Sets whether the first record is a header, which is copied to the
+     * output with names for the appended columns.
+     *
+     * @param header true if the first record is a header.
+     */
+    public void setHeader(boolean header)
+    {
+        this.header = header;
+    }
+
+    /**
+     * Sets the zero-based indexes of the columns to process.
+     *
+     * @param gcp column containing the GS1 Company Prefix.
+     * @param model column containing the model reference.
+     * @param checks column containing the check character pair, or -1 if there is none.
+     * @throws IllegalArgumentException if the columns are not valid.
+     */
+    public void setColumns(int gcp, int model, int checks)
+    {
+        if (gcp < 0 || model < 0 || checks < -1 || gcp == model || gcp == checks || model == checks)
+            throw new IllegalArgumentException("The columns must be distinct and not negative.");
+        gcpColumn = gcp;
+        modelColumn = model;
+        checksColumn = checks;
+    }
+
+    /**
+     * Sets the number of threads parsing and validating chunks.
+     *
+     * @param threads number of threads, at least 1.
+     * @throws IllegalArgumentException if the number of threads is less than 1.
+     */
+    public void setThreads(int threads)
+    {
+        if (threads < 1)
+            throw new IllegalArgumentException("At least one thread is required.");
+        this.threads = threads;
+    }
+
+    /**
+     * Sets the size of the chunks in which the input is read. Records longer
+     * than a chunk are accommodated by enlarging the chunk.
+     *
+     * @param chunkSize chunk size in bytes, at least 1024.
+     * @throws IllegalArgumentException if the chunk size is less than 1024.
+     */
+    public void setChunkSize(int chunkSize)
+    {
+        if (chunkSize < 1024)
+            throw new IllegalArgumentException("The chunk size must be at least 1024 bytes.");
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Process an input file, writing the enriched output file.
+     *
+     * @param input the file to read.
+     * @param output the file to write.
+     * @return the number of rows having each status.
+     * @throws IOException if a file cannot be read or written.
+     */
+    public Map<GMNStatus, Long> process(Path input, Path output)
+        throws IOException
+    {
+        int inFlight = threads * 2;
+        BlockingQueue<Chunk> pool = new ArrayBlockingQueue<>(inFlight);
+        for (int i = 0; i < inFlight; i++)
+            pool.add(new Chunk(chunkSize));
+        BlockingQueue<Future<Chunk>> pending = new LinkedBlockingQueue<>();
+        CompletableFuture<Chunk> end = CompletableFuture.completedFuture(null);
+
+        ExecutorService workers = Executors.newFixedThreadPool(threads);
+        String source = input.toString();
+
+        // The reader splits the input into chunks at record boundaries and
+        // queues them for processing, in order, until the pool is exhausted
+        Thread reader = new Thread(() -> {
+            CompletableFuture<Chunk> failed = new CompletableFuture<>();
+            try (FileChannel channel = FileChannel.open(input, StandardOpenOption.READ))
+            {
+                byte[] carry = new byte[0];
+                int carryLen = 0;
+                long offset = 0;
+                boolean first = true;
+                while (true)
+                {
+                    Chunk c = pool.take();
+                    if (c.in.length < carryLen + 1024)
+                        c.in = new byte[Math.max(chunkSize, carryLen * 2)];
+                    System.arraycopy(carry, 0, c.in, 0, carryLen);
+                    int len = carryLen;
+                    boolean eof = false;
+                    int boundary;
+                    while (true)
+                    {
+                        int n = channel.read(ByteBuffer.wrap(c.in, len, c.in.length - len));
+                        if (n < 0)
+                            eof = true;
+                        else
+                            len += n;
+                        if (eof)
+                        {
+                            boundary = len;
+                            break;
+                        }
+                        if (len < c.in.length)
+                            continue;
+                        boundary = lastRecordBoundary(c.in, len);
+                        if (boundary > 0)
+                            break;
+                        byte[] bigger = new byte[c.in.length * 2];  // A record longer than the chunk
+                        System.arraycopy(c.in, 0, bigger, 0, len);
+                        c.in = bigger;
+                    }
+
+                    carryLen = len - boundary;
+                    if (carry.length < carryLen)
+                        carry = new byte[Math.max(carryLen, chunkSize)];
+                    System.arraycopy(c.in, boundary, carry, 0, carryLen);
+
+                    c.len = boundary;
+                    c.offset = offset;
+                    c.first = first;
+                    offset += boundary;
+                    first = false;
+                    pending.put(workers.submit(() -> process(c, source)));
+                    if (eof)
+                        break;
+                }
+                pending.put(end);
+            }
+            catch (InterruptedException e)
+            {
+                // Processing was abandoned by the writer
+            }
+            catch (Throwable t)
+            {
+                // Any failure, including running out of memory, must reach the
+                // writer so that it does not wait for chunks indefinitely
+                failed.completeExceptionally(t);
+                pending.add(failed);
+            }
+        }, "gmn-csv-reader");
+        reader.setDaemon(true);
+        reader.start();
+
+        // Write the processed chunks in order
+        Map<GMNStatus, Long> counts = new EnumMap<>(GMNStatus.class);
+        for (GMNStatus s : GMNStatus.values())
+            counts.put(s, 0L);
+        try (OutputStream out = Files.newOutputStream(output))
+        {
+            while (true)
+            {
+                Future<Chunk> f = pending.take();
+                if (f == end)
+                    break;
+                Chunk c = f.get();
+                out.write(c.out, 0, c.outLen);
+                for (GMNStatus s : GMNStatus.values())
+                    counts.merge(s, c.counts[s.ordinal()], Long::sum);
+                pool.put(c);
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while processing " + input, e);
+        }
+        catch (ExecutionException e)
+        {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw new IOException(e.getCause());
+        }
+        finally
+        {
+            reader.interrupt();
+            workers.shutdownNow();
+        }
+        return counts;
+    }
+
+    // Offset following the last record terminator of a buffer that starts
+    // with a record, or 0 if there is none
+    private int lastRecordBoundary(byte[] buf, int len)
+    {
+        int boundary = 0;
+        while (boundary < len)
+        {
+            int end = recordEnd(buf, boundary, len);
+            if (end >= len)
+                break;
+            boundary = end + 1;
+        }
+        return boundary;
+    }
+
+    // Parse, validate and format the records of a chunk
+    private Chunk process(Chunk c, String source)
+    {
+        Object event = GMNEvents.EVENTS.beginChunk();
+
+        Field gcp = new Field(), model = new Field(), checks = new Field();
+        byte[] in = c.in;
+        int end = c.len;
+        int pos = 0;
+        c.outLen = 0;
+        c.rows = 0;
+        Arrays.fill(c.counts, 0);
+        ensure(c, end + end / 2);
+
+        if (c.first && header && end > 0)
+        {
+            int recEnd = recordEnd(in, 0, end);
+            int lineEnd = trimmed(in, 0, recEnd);
+            byte[] names = ("\u0000checks\u0000status\n").replace('\u0000', (char) delimiter).getBytes(StandardCharsets.US_ASCII);
+            ensure(c, lineEnd + names.length);
+            System.arraycopy(in, 0, c.out, 0, lineEnd);
+            System.arraycopy(names, 0, c.out, lineEnd, names.length);
+            c.outLen = lineEnd + names.length;
+            pos = recEnd < end ? recEnd + 1 : end;
+        }
+
+        while (pos < end)
+        {
+            int start = pos;
+            gcp.len = model.len = checks.len = 0;
+            gcp.buf = model.buf = checks.buf = in;
+
+            // Locate the fields of interest within the record
+            int column = 0;
+            while (true)
+            {
+                Field f = column == gcpColumn ? gcp : column == modelColumn ? model : column == checksColumn ? checks : null;
+                pos = parseField(in, pos, end, f);
+                if (pos >= end || in[pos] == '\n')
+                    break;
+                pos++;  // Delimiter
+                column++;
+            }
+            int lineEnd = trimmed(in, start, pos);
+            pos++;
+
+            if (lineEnd == start)
+            {
+                ensure(c, c.outLen + 1);
+                c.out[c.outLen++] = '\n';
+                continue;
+            }
+
+            GMNStatus partial = GMN.status(gcp.buf, gcp.off, gcp.len, model.buf, model.off, model.len, null, 0, 0);
+            GMNStatus status = partial;
+            if (checksColumn >= 0 && column >= checksColumn)
+                status = GMN.status(gcp.buf, gcp.off, gcp.len, model.buf, model.off, model.len,
+                                    checks.buf, checks.off, checks.len);
+
+            int recLen = lineEnd - start;
+            ensure(c, c.outLen + recLen + 8);
+            byte[] out = c.out;
+            int o = c.outLen;
+            System.arraycopy(in, start, out, o, recLen);
+            o += recLen;
+            out[o++] = delimiter;
+            if (partial == GMNStatus.VALID)
+            {
+                int sum = GMN.checkSum(gcp.buf, gcp.off, gcp.len, model.buf, model.off, model.len);
+                out[o++] = (byte) GMN.cset32Char(sum / 32);
+                out[o++] = (byte) GMN.cset32Char(sum % 32);
+            }
+            out[o++] = delimiter;
+            int code = status.code();
+            if (code >= 10)
+                out[o++] = (byte) ('0' + code / 10);
+            out[o++] = (byte) ('0' + code % 10);
+            out[o++] = '\n';
+            c.outLen = o;
+
+            c.rows++;
+            c.counts[status.ordinal()]++;
+            if (status != GMNStatus.VALID && status != GMNStatus.INCORRECT_CHECK)
+                GMNEvents.EVENTS.rejected(status);
+        }
+
+        long rejected = c.rows - c.counts[GMNStatus.VALID.ordinal()] - c.counts[GMNStatus.INCORRECT_CHECK.ordinal()];
+        GMNEvents.EVENTS.endChunk(event, source, c.offset, c.len, c.rows, rejected);
+        return c;
+    }
+
+    // Parse the field starting at the given position, recording its location
+    // if required, and return the position of the following delimiter or line
+    // terminator
+    private int parseField(byte[] in, int pos, int end, Field f)
+    {
+        if (quoting && pos < end && in[pos] == quote)
+        {
+            int start = ++pos;
+            int len = 0;
+            boolean escaped = false;
+            while (pos < end)
+            {
+                if (in[pos] == quote)
+                {
+                    if (pos + 1 < end && in[pos + 1] == quote)
+                    {
+                        // Doubled quote: copy the unescaped value to scratch
+                        if (f != null)
+                        {
+                            if (!escaped)
+                                System.arraycopy(in, start, f.scratch, 0, Math.min(len, FIELD_SCRATCH));
+                            if (len < FIELD_SCRATCH)
+                                f.scratch[len] = quote;
+                        }
+                        escaped = true;
+                        len++;
+                        pos += 2;
+                        continue;
+                    }
+                    pos++;
+                    break;
+                }
+                if (escaped && f != null && len < FIELD_SCRATCH)
+                    f.scratch[len] = in[pos];
+                len++;
+                pos++;
+            }
+            if (f != null)
+            {
+                f.buf = escaped ? f.scratch : in;
+                f.off = escaped ? 0 : start;
+                f.len = len;
+            }
+
+            // Tolerate stray characters between the closing quote and the delimiter
+            while (pos < end && in[pos] != delimiter && in[pos] != '\n')
+                pos++;
+            return pos;
+        }
+
+        int start = pos;
+        while (pos < end && in[pos] != delimiter && in[pos] != '\n')
+            pos++;
+        if (f != null)
+        {
+            f.buf = in;
+            f.off = start;
+            f.len = trimmed(in, start, pos) - start;
+        }
+        return pos;
+    }
+
+    // Position of the line terminator ending the record that starts at the
+    // given position, or the end if it is not terminated. Quotes are treated
+    // as by parseField.
+    private int recordEnd(byte[] in, int pos, int end)
+    {
+        if (!quoting)
+        {
+            while (pos < end && in[pos] != '\n')
+                pos++;
+            return pos;
+        }
+
+        boolean fieldStart = true, quoted = false;
+        for (; pos < end; pos++)
+        {
+            byte b = in[pos];
+            if (quoted)
+            {
+                if (b == quote)
+                {
+                    if (pos + 1 < end && in[pos + 1] == quote)
+                        pos++;  // Doubled quote
+                    else
+                        quoted = false;
+                }
+            }
+            else if (b == '\n')
+                break;
+            else
+            {
+                quoted = fieldStart && b == quote;
+                fieldStart = b == delimiter;
+            }
+        }
+        return pos;
+    }
+
+    // End of a line excluding any carriage return preceding the line feed
+    private static int trimmed(byte[] in, int start, int end)
+    {
+        return end > start && in[end - 1] == '\r' ? end - 1 : end;
+    }
+
+    // Ensure that the output buffer of a chunk has the given capacity
+    private static void ensure(Chunk c, int capacity)
+    {
+        if (c.out.length >= capacity)
+            return;
+        byte[] bigger = new byte[Math.max(capacity, c.out.length * 2)];
+        System.arraycopy(c.out, 0, bigger, 0, c.outLen);
+        c.out = bigger;
+    }
+
+    /**
+     * Process a CSV or TSV file from the command line. Files whose name ends
+     * with .tsv are treated as tab separated, without quoting.
+     *
+     * <p>Usage: java org.gs1.GMNCsvProcessor input output gcpColumn modelColumn [checksColumn] [--header]
+     *
+     * @param args the command line arguments.
+     * @throws IOException if a file cannot be read or written.
+     */
+    public static void main(String[] args)
+        throws IOException
+    {
+        boolean header = args.length > 0 && args[args.length - 1].equals("--header");
+        int n = header ? args.length - 1 : args.length;
+        if (n < 4 || n > 5)
+        {
+            System.err.println("Usage: java org.gs1.GMNCsvProcessor input output gcpColumn modelColumn [checksColumn] [--header]");
+            System.exit(1);
+        }
+
+        GMNCsvProcessor p = new GMNCsvProcessor();
+        if (args[0].endsWith(".tsv"))
+        {
+            p.setDelimiter('\t');
+            p.setQuoting(false);
+        }
+        p.setHeader(header);
+        p.setColumns(Integer.parseInt(args[2]), Integer.parseInt(args[3]), n == 5 ? Integer.parseInt(args[4]) : -1);
+
+        long start = System.nanoTime();
+        Map<GMNStatus, Long> counts = p.process(Paths.get(args[0]), Paths.get(args[1]));
+        double secs = (System.nanoTime() - start) / 1e9;
+
+        long rows = 0;
+        for (Map.Entry<GMNStatus, Long> e : counts.entrySet())
+        {
+            rows += e.getValue();
+            if (e.getValue() > 0)
+                System.out.println(e.getKey() + ": " + e.getValue());
+        }
+        System.out.println("Processed " + rows + " rows in " + String.format("%.2f", secs) + "s");
+    }
+
+}
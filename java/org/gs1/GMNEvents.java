@@ -0,0 +1,82 @@
+package org.gs1;
+
+/**
+ * Hooks through which the classes of this package report activity to Java
+ * Flight Recorder.
+ *
+ * <p>When running on Java 11 or later with the flight recorder layer
+ * available, the hooks are implemented by GMNFlightRecorder. Otherwise they do
+ * nothing. Each begin hook returns an opaque event, or null if the event is not
+ * being recorded, which must be passed to the matching end hook.
+ *
+ * @author Copyright (c) 2019-2021 GS1 AISBL.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+abstract class GMNEvents {
+
+    /**
+     * The hooks in effect.
+     */
+    final static GMNEvents EVENTS = load();
+
+    // Use the flight recorder layer if it can be loaded on this JVM
+    private static GMNEvents load()
+    {
+        try
+        {
+            return (GMNEvents) Class.forName("org.gs1.GMNFlightRecorder").getDeclaredConstructor().newInstance();
+        }
+        catch (ReflectiveOperationException | LinkageError e)
+        {
+            return new GMNEvents() {};
+        }
+    }
+
+    // Start timing the verification of a batch of GMNs
+    Object beginBatch()
+    {
+        return null;
+    }
+
+    // Record the outcome of verifying a batch of GMNs
+    void endBatch(Object event, String source, int size, int valid, int rejected)
+    {
+    }
+
+    // Start timing the processing of a chunk of a file
+    Object beginChunk()
+    {
+        return null;
+    }
+
+    // Record the outcome of processing a chunk of a file
+    void endChunk(Object event, String file, long offset, long bytes, long items, long rejected)
+    {
+    }
+
+    // Record that an input has been rejected for the given reason
+    void rejected(String reason)
+    {
+    }
+
+    // Record that an input has been rejected with the given format problem
+    void rejected(GMNStatus status)
+    {
+        rejected(status.name());
+    }
+
+}
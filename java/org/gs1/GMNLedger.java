@@ -0,0 +1,626 @@
+package org.gs1;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Crash-safe ledger of the GMNs minted for a GS1 Company Prefix, guaranteeing
+ * that no GMN is issued twice, including across restarts.
+ *
+ * <p>Model references are minted in sequence as a fixed-width decimal
+ * number, optionally following a fixed prefix, and handed out in blocks. The
+ * ledger is an append-only, memory-mapped file of the ranges of sequence
+ * numbers that have been allocated. Concurrent threads claim ranges without
+ * locking by compare-and-set on the allocation cursor, then append a record
+ * of their range. A block is only returned once its record is durable. The
+ * records of concurrent threads are made durable together by whichever of
+ * them forces the file first, so that the cost of each force is shared by a
+ * group of allocations, while the others wait without spinning.
+ *
+ * <p>After each force a checkpoint of the number of durable records and the
+ * end of the ranges they cover is written to the file header, alternating
+ * between two copies so that one is always intact. On opening, the ledger
+ * resumes from the checkpoint and scans only the records appended after it. A
+ * record that is incomplete due to a crash is ignored, and the range it would
+ * have covered is never issued since it was never returned.
+ *
+ * <p>When every record has been used the ledger rolls over: once all of them
+ * are durable the checkpoint alone accounts for their ranges, so it is made
+ * durable in both copies and the records are reused from the start.
+ *
+ * <p>A ledger file may only be open once at a time: it is locked for the
+ * lifetime of the ledger, both against other processes and within this JVM.
+ *
+ * @author Copyright (c) 2019-2021 GS1 AISBL.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+public final class GMNLedger implements AutoCloseable {
+
+    /**
+     * Default number of allocation records in a ledger file before it rolls over.
+     */
+    public final static int DEFAULT_MAX_RECORDS = 1 << 20;
+
+    // File layout: a header followed by fixed-size records of the allocated
+    // ranges, each being the first sequence number, the count and a check
+    private final static long MAGIC = 0x474D4E4C45444731L;  // "GMNLEDG1"
+    private final static int VERSION = 1;
+    private final static int VERSION_OFFSET = 8;
+    private final static int WIDTH_OFFSET = 12;
+    private final static int GCP_OFFSET = 16;
+    private final static int PREFIX_OFFSET = 32;
+    private final static int CHECKPOINT_OFFSET = 64;
+    private final static int CHECKPOINT_COPY_OFFSET = 96;
+    private final static int HEADER = 128;
+    private final static int RECORD = 16;
+
+    // The ledger files open in this JVM, which file locks do not exclude
+    private final static Set<Path> OPEN = ConcurrentHashMap.newKeySet();
+
+    private final Path file;
+    private final Path key;
+    private final FileChannel channel;
+    private final MappedByteBuffer map;
+    private final long maxRecords;
+    private final String gcp;
+    private final String prefix;
+    private final int width;
+    private final long limit;
+
+    private final AtomicLong cursor = new AtomicLong();
+    private final AtomicLong records = new AtomicLong();
+
+    // Records are numbered on across roll-overs since opening; the state below
+    // is guarded by the lock and its changes are signalled on the condition
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private long published;
+    private long publishedEnd;
+    private long durable;
+    private long base;
+    private long checkpoints;
+    private boolean forcing;
+    private boolean broken;
+    private volatile boolean closed;
+
+    private GMNLedger(Path file, Path key, FileChannel channel, MappedByteBuffer map, long maxRecords,
+                      String gcp, String prefix, int width)
+    {
+        this.file = file;
+        this.key = key;
+        this.channel = channel;
+        this.map = map;
+        this.maxRecords = maxRecords;
+        this.gcp = gcp;
+        this.prefix = prefix;
+        this.width = width;
+        long l = 1;
+        for (int i = 0; i < width && l <= Long.MAX_VALUE / 10; i++)
+            l *= 10;
+        this.limit = l;
+    }
+
+    /**
+     * Open the ledger for a GS1 Company Prefix in the given directory,
+     * creating it if necessary, with the default maximum number of records.
+     *
+     * @param dir directory holding the ledgers.
+     * @param gcp the GS1 Company Prefix.
+     * @param prefix fixed start of every minted model reference, possibly empty.
+     * @param width number of digits of the sequence number following the prefix.
+     * @return the ledger.
+     * @throws GS1Exception if the GS1 Company Prefix or model reference prefix is invalid, or leaves no room for the sequence number.
+     * @throws IOException if the ledger cannot be read or created.
+     * @throws IllegalArgumentException if an existing ledger was created with a different prefix or width.
+     * @throws IllegalStateException if the ledger is already open, in this or another process.
+     */
+    public static GMNLedger open(Path dir, String gcp, String prefix, int width)
+        throws GS1Exception, IOException
+    {
+        return open(dir, gcp, prefix, width, DEFAULT_MAX_RECORDS);
+    }
+
+    /**
+     * Open the ledger for a GS1 Company Prefix in the given directory,
+     * creating it if necessary.
+     *
+     * @param dir directory holding the ledgers.
+     * @param gcp the GS1 Company Prefix.
+     * @param prefix fixed start of every minted model reference, possibly empty.
+     * @param width number of digits of the sequence number following the prefix.
+     * @param maxRecords number of allocations recorded before the ledger rolls over, which fixes the size of a new ledger file.
+     * @return the ledger.
+     * @throws GS1Exception if the GS1 Company Prefix or model reference prefix is invalid, or leaves no room for the sequence number.
+     * @throws IOException if the ledger cannot be read or created.
+     * @throws IllegalArgumentException if an existing ledger was created with a different prefix or width.
+     * @throws IllegalStateException if the ledger is already open, in this or another process.
+     */
+    public static GMNLedger open(Path dir, String gcp, String prefix, int width, int maxRecords)
+        throws GS1Exception, IOException
+    {
+        if (width < 1 || maxRecords < 1)
+            throw new IllegalArgumentException("The width and maximum number of records must be positive.");
+        if (maxRecords > (Integer.MAX_VALUE - HEADER) / RECORD)
+            throw new IllegalArgumentException("The maximum number of records is too large for the ledger to be mapped.");
+
+        // Validate the GS1 Company Prefix and model reference prefix by
+        // completing the first GMN that could be minted
+        StringBuilder first = new StringBuilder(prefix);
+        for (int i = 0; i < width; i++)
+            first.append('0');
+        GMN.addCheckCharactersGcpModel(gcp, first.toString());
+
+        Path file = dir.resolve(gcp + ".ledger");
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        Path key = null;
+        try
+        {
+            // Exclude other users of the ledger in this JVM, then in other processes
+            key = file.toRealPath();
+            if (!OPEN.add(key))
+            {
+                key = null;
+                throw new IllegalStateException("The ledger " + file + " is already open.");
+            }
+            FileLock lock;
+            try
+            {
+                lock = channel.tryLock();
+            }
+            catch (OverlappingFileLockException e)
+            {
+                lock = null;
+            }
+            if (lock == null)
+                throw new IllegalStateException("The ledger " + file + " is locked by another process.");
+
+            // Only the holder of the lock may decide that the ledger is new
+            boolean exists = channel.size() > 0;
+            long size = exists ? channel.size() : HEADER + (long) maxRecords * RECORD;
+            if (size < HEADER)
+                throw new IOException("The ledger " + file + " is truncated.");
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            map.order(ByteOrder.LITTLE_ENDIAN);
+            GMNLedger ledger = new GMNLedger(file, key, channel, map, (size - HEADER) / RECORD, gcp, prefix, width);
+            if (exists)
+                ledger.recover();
+            else
+                ledger.create();
+            return ledger;
+        }
+        catch (IOException | RuntimeException e)
+        {
+            channel.close();
+            if (key != null)
+                OPEN.remove(key);
+            throw e;
+        }
+    }
+
+    // Initialise the header of a new ledger
+    private void create()
+    {
+        map.putLong(0, MAGIC);
+        map.putInt(VERSION_OFFSET, VERSION);
+        map.putInt(WIDTH_OFFSET, width);
+        putString(GCP_OFFSET, gcp);
+        putString(PREFIX_OFFSET, prefix);
+        putCheckpoint(CHECKPOINT_OFFSET, 0, 0);
+        putCheckpoint(CHECKPOINT_COPY_OFFSET, 0, 0);
+        map.force();
+    }
+
+    // Resume from the checkpoint, scanning the records appended after it
+    private void recover()
+        throws IOException
+    {
+        if (map.getLong(0) != MAGIC || map.getInt(VERSION_OFFSET) != VERSION)
+            throw new IOException("The file " + file + " is not a GMN ledger.");
+        if (!getString(GCP_OFFSET).equals(gcp) || !getString(PREFIX_OFFSET).equals(prefix) || map.getInt(WIDTH_OFFSET) != width)
+            throw new IllegalArgumentException("The ledger " + file + " was created for GS1 Company Prefix " + getString(GCP_OFFSET) +
+                                               " with model prefix \"" + getString(PREFIX_OFFSET) + "\" and width " + map.getInt(WIDTH_OFFSET) + ".");
+
+        // Resume from the earlier of the intact checkpoint copies, since
+        // scanning records again can only confirm the end they cover
+        long slot = -1, end = 0;
+        for (int offset : new int[] { CHECKPOINT_OFFSET, CHECKPOINT_COPY_OFFSET })
+        {
+            long cpSlot = map.getLong(offset), cpEnd = map.getLong(offset + 8);
+            if (map.getInt(offset + 16) == check(cpSlot, cpEnd) && cpSlot >= 0 && cpSlot <= maxRecords && cpEnd >= 0)
+            {
+                slot = slot < 0 ? cpSlot : Math.min(slot, cpSlot);
+                end = Math.max(end, cpEnd);
+            }
+        }
+        if (slot < 0)
+            slot = 0;
+
+        for (; slot < maxRecords; slot++)
+        {
+            int pos = HEADER + (int) slot * RECORD;
+            long start = map.getLong(pos);
+            int count = map.getInt(pos + 8);
+            if (count <= 0 || map.getInt(pos + 12) != check(start, count))
+                break;
+            end = Math.max(end, start + count);
+        }
+
+        // Clear any records stranded beyond an incomplete one
+        for (long s = slot; s < maxRecords; s++)
+        {
+            int pos = HEADER + (int) s * RECORD;
+            if (map.getLong(pos) == 0 && map.getLong(pos + 8) == 0)
+                break;
+            map.putLong(pos, 0);
+            map.putLong(pos + 8, 0);
+        }
+
+        cursor.set(end);
+        records.set(slot);
+        published = slot;
+        publishedEnd = end;
+        durable = slot;
+        checkpoint(slot, end);
+        map.force();
+    }
+
+    /**
+     * Allocate a block of new GMNs that have never been issued before. The
+     * block is durably recorded when this method returns.
+     *
+     * @param count number of GMNs, at least 1.
+     * @return the block.
+     * @throws IllegalStateException if the model references are exhausted, or the ledger is closed.
+     */
+    public Block allocate(int count)
+    {
+        if (count < 1)
+            throw new IllegalArgumentException("At least one GMN must be allocated.");
+        if (closed)
+            throw new IllegalStateException("The ledger has been closed.");
+
+        // Claim a range of sequence numbers
+        long start;
+        do
+        {
+            start = cursor.get();
+            if (start + count > limit)
+                throw new IllegalStateException("The model references of the ledger " + file + " are exhausted.");
+        }
+        while (!cursor.compareAndSet(start, start + count));
+
+        // Append its record, rolling over when the records are used up
+        long slot = records.getAndIncrement();
+        long physical = slot % maxRecords;
+        if (physical == 0 && slot > 0)
+            rollOver(slot);
+        else
+            awaitRollOver(slot - physical);
+        int pos = HEADER + (int) physical * RECORD;
+        map.putLong(pos, start);
+        map.putInt(pos + 8, count);
+        map.putInt(pos + 12, check(start, count));
+
+        lock.lock();
+        try
+        {
+            // Publish records in order so that those below the published
+            // count are all complete
+            while (published != slot)
+                await();
+            published = slot + 1;
+            publishedEnd = Math.max(publishedEnd, start + count);
+            changed.signalAll();
+
+            // Group commit: one thread forces every record published so far
+            // while the others wait for it
+            while (durable <= slot)
+            {
+                if (forcing)
+                    await();
+                else
+                    commit();
+            }
+        }
+        finally
+        {
+            lock.unlock();
+        }
+
+        return new Block(start, count);
+    }
+
+    // Force the published records, releasing the lock meanwhile; called with the lock held
+    private void commit()
+    {
+        long upTo = published;
+        long end = publishedEnd;
+        forcing = true;
+        boolean forced = false;
+        lock.unlock();
+        try
+        {
+            map.force();
+            forced = true;
+        }
+        finally
+        {
+            lock.lock();
+            if (forced)
+            {
+                durable = upTo;
+                checkpoint(upTo - base, end);
+            }
+            forcing = false;
+            changed.signalAll();
+        }
+    }
+
+    // Reuse the records once the checkpoint alone accounts for all of them
+    private void rollOver(long slot)
+    {
+        long end;
+        lock.lock();
+        try
+        {
+            while (durable < slot || forcing)
+                await();
+            forcing = true;
+            end = publishedEnd;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+
+        boolean rolled = false;
+        try
+        {
+            // Make each copy of the checkpoint durable in turn so that one is
+            // intact whenever the records are being cleared
+            putCheckpoint(CHECKPOINT_OFFSET, 0, end);
+            map.force();
+            putCheckpoint(CHECKPOINT_COPY_OFFSET, 0, end);
+            map.force();
+            for (long s = 0; s < maxRecords; s++)
+            {
+                int pos = HEADER + (int) s * RECORD;
+                map.putLong(pos, 0);
+                map.putLong(pos + 8, 0);
+            }
+            rolled = true;
+        }
+        finally
+        {
+            lock.lock();
+            if (rolled)
+                base = slot;
+            else
+                broken = true;
+            forcing = false;
+            changed.signalAll();
+            lock.unlock();
+        }
+    }
+
+    // Wait until the records have rolled over to those numbered from base
+    private void awaitRollOver(long base)
+    {
+        lock.lock();
+        try
+        {
+            while (this.base < base)
+                await();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    // Wait for a change of state; called with the lock held
+    private void await()
+    {
+        if (closed)
+            throw new IllegalStateException("The ledger has been closed.");
+        if (broken)
+            throw new IllegalStateException("The ledger " + file + " could not be rolled over.");
+        changed.awaitUninterruptibly();
+    }
+
+    /**
+     * @return the first sequence number that has not been allocated.
+     */
+    public long getCursor()
+    {
+        return cursor.get();
+    }
+
+    /**
+     * @return the GS1 Company Prefix of the ledger.
+     */
+    public String getGcp()
+    {
+        return gcp;
+    }
+
+    /**
+     * Return the model reference having the given sequence number.
+     *
+     * @param sequence the sequence number.
+     * @return the model reference.
+     */
+    public String modelReference(long sequence)
+    {
+        String digits = Long.toString(sequence);
+        StringBuilder sb = new StringBuilder(prefix.length() + width).append(prefix);
+        for (int i = digits.length(); i < width; i++)
+            sb.append('0');
+        return sb.append(digits).toString();
+    }
+
+    /**
+     * Return the complete GMN having the given sequence number.
+     *
+     * @param sequence the sequence number.
+     * @return the GMN including its check character pair.
+     */
+    public String gmn(long sequence)
+    {
+        String part = gcp + modelReference(sequence);
+        byte[] b = part.getBytes(StandardCharsets.US_ASCII);
+        int sum = GMN.checkSum(b, 0, b.length);
+        return part + GMN.cset32Char(sum / 32) + GMN.cset32Char(sum % 32);
+    }
+
+    /**
+     * Close the ledger, recording a final checkpoint and releasing its lock.
+     *
+     * @throws IOException if the ledger file cannot be closed.
+     */
+    @Override
+    public void close()
+        throws IOException
+    {
+        lock.lock();
+        try
+        {
+            if (closed)
+                return;
+            closed = true;
+            changed.signalAll();
+            while (forcing)
+                changed.awaitUninterruptibly();
+            forcing = true;
+            checkpoint(published - base, publishedEnd);
+        }
+        finally
+        {
+            lock.unlock();
+        }
+        map.force();
+        try
+        {
+            channel.close();
+        }
+        finally
+        {
+            OPEN.remove(key);
+        }
+    }
+
+    // Record the number of durable records and the end of the ranges they
+    // cover, in the copy not written since the last force
+    private void checkpoint(long slot, long end)
+    {
+        putCheckpoint((checkpoints++ & 1) == 0 ? CHECKPOINT_OFFSET : CHECKPOINT_COPY_OFFSET, slot, end);
+    }
+
+    private void putCheckpoint(int offset, long slot, long end)
+    {
+        map.putLong(offset, slot);
+        map.putLong(offset + 8, end);
+        map.putInt(offset + 16, check(slot, end));
+    }
+
+    // Check value detecting incomplete records; never zero, unlike an unwritten record
+    private static int check(long a, long b)
+    {
+        long h = a * 0x9E3779B97F4A7C15L ^ b * 0xC2B2AE3D27D4EB4FL ^ MAGIC;
+        h ^= h >>> 31;
+        h *= 0xBF58476D1CE4E5B9L;
+        h ^= h >>> 29;
+        return (int) h | 1;
+    }
+
+    private void putString(int offset, String s)
+    {
+        byte[] b = s.getBytes(StandardCharsets.US_ASCII);
+        map.put(offset, (byte) b.length);
+        for (int i = 0; i < b.length; i++)
+            map.put(offset + 1 + i, b[i]);
+    }
+
+    private String getString(int offset)
+    {
+        byte[] b = new byte[map.get(offset)];
+        for (int i = 0; i < b.length; i++)
+            b[i] = map.get(offset + 1 + i);
+        return new String(b, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * A block of consecutively numbered GMNs allocated from a ledger.
+     */
+    public final class Block extends AbstractList<String>
+    {
+        private final long first;
+        private final int size;
+
+        private Block(long first, int size)
+        {
+            this.first = first;
+            this.size = size;
+        }
+
+        /**
+         * @return the sequence number of the first GMN of the block.
+         */
+        public long getFirst()
+        {
+            return first;
+        }
+
+        /**
+         * @return the number of GMNs in the block.
+         */
+        @Override
+        public int size()
+        {
+            return size;
+        }
+
+        /**
+         * Return a GMN of the block.
+         *
+         * @param i index within the block.
+         * @return the GMN including its check character pair.
+         */
+        @Override
+        public String get(int i)
+        {
+            if (i < 0 || i >= size)
+                throw new IndexOutOfBoundsException("Index " + i + " of a block of " + size);
+            return gmn(first + i);
+        }
+    }
+
+}
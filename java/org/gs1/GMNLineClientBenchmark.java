@@ -0,0 +1,278 @@
+package org.gs1;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Load generating client for {@link GMNLineServer}.
+ *
+ * <p>Opens many connections, each of which keeps a fixed number of requests
+ * in flight, and checks every response against the status with which the
+ * request was generated by {@link GMNCorpusGenerator}. Connections are spread
+ * over a number of threads, each driving its share with a selector.
+ *
+ * <p>Usage: java org.gs1.GMNLineClientBenchmark host port connections requestsPerConnection [pipelineDepth [threads [errorFraction]]]
+ *
+ * @author Copyright (c) 2019-2021 GS1 AISBL.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+public final class GMNLineClientBenchmark {
+
+    /**
+     * Number of distinct requests, which each connection cycles through from
+     * its own starting point.
+     */
+    private final static int REQUESTS = 4096;
+
+    // Requests shared by all connections: newline terminated GMNs and the
+    // status each should receive
+    private final byte[] requests;
+    private final int[] lineStart;
+    private final byte[] expected;
+
+    // The state of a connection
+    private final static class Connection
+    {
+        final SocketChannel channel;
+        final int first;
+        long sent;
+        long received;
+        int responseCode = -1;
+        ByteBuffer out;
+
+        Connection(SocketChannel channel, int first)
+        {
+            this.channel = channel;
+            this.first = first;
+        }
+    }
+
+    private GMNLineClientBenchmark(long seed, double errorFraction)
+    {
+        GMNCorpusGenerator g = new GMNCorpusGenerator(seed);
+        if (errorFraction > 0)
+            for (GMNStatus kind : GMNCorpusGenerator.KINDS)
+                if (kind != GMNStatus.VALID)
+                    g.setErrorWeight(kind, errorFraction / (GMNCorpusGenerator.KINDS.size() - 1));
+        g.setErrorWeight(GMNStatus.VALID, 1 - errorFraction);
+
+        byte[] buf = new byte[REQUESTS * (GMNCorpusGenerator.MAX_LENGTH + 1)];
+        lineStart = new int[REQUESTS + 1];
+        expected = new byte[REQUESTS];
+        int len = 0;
+        for (int i = 0; i < REQUESTS; i++)
+        {
+            lineStart[i] = len;
+            len += g.next(buf, len);
+            buf[len++] = '\n';
+            expected[i] = (byte) g.lastStatus().code();
+        }
+        lineStart[REQUESTS] = len;
+        requests = new byte[len];
+        System.arraycopy(buf, 0, requests, 0, len);
+    }
+
+    /**
+     * Run the benchmark against a server using line responses.
+     *
+     * @param server address of the server.
+     * @param connections number of connections.
+     * @param requestsPerConnection number of requests sent on each connection.
+     * @param pipelineDepth maximum number of requests in flight on each connection.
+     * @param threads number of client threads.
+     * @param errorFraction fraction of requests that are not valid GMNs.
+     * @return a human readable summary, including the number of incorrect responses.
+     * @throws IOException if a connection fails.
+     * @throws InterruptedException if interrupted while waiting for the client threads.
+     */
+    public static String run(InetSocketAddress server, int connections, long requestsPerConnection,
+                             int pipelineDepth, int threads, double errorFraction)
+        throws IOException, InterruptedException
+    {
+        if (connections < 1 || requestsPerConnection < 1 || pipelineDepth < 1 || threads < 1)
+            throw new IllegalArgumentException("The connections, requests, pipeline depth and threads must be positive.");
+        if (errorFraction < 0 || errorFraction > 1)
+            throw new IllegalArgumentException("The error fraction must be between 0 and 1.");
+
+        GMNLineClientBenchmark b = new GMNLineClientBenchmark(42, errorFraction);
+        threads = Math.min(threads, connections);
+        AtomicLong mismatches = new AtomicLong();
+        List<Thread> clients = new ArrayList<>();
+        List<IOException> failures = new ArrayList<>();
+
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++)
+        {
+            int share = connections / threads + (t < connections % threads ? 1 : 0);
+            int firstIndex = t;
+            Thread client = new Thread(() -> {
+                try
+                {
+                    mismatches.addAndGet(b.drive(server, share, firstIndex, requestsPerConnection, pipelineDepth));
+                }
+                catch (IOException e)
+                {
+                    synchronized (failures)
+                    {
+                        failures.add(e);
+                    }
+                }
+            }, "gmn-line-client-" + t);
+            clients.add(client);
+            client.start();
+        }
+        for (Thread client : clients)
+            client.join();
+        double secs = (System.nanoTime() - start) / 1e9;
+
+        if (!failures.isEmpty())
+            throw failures.get(0);
+
+        long total = connections * requestsPerConnection;
+        return String.format("%d requests over %d connections in %.2fs: %.0f requests/s, %d incorrect responses%n",
+                             total, connections, secs, total / secs, mismatches.get());
+    }
+
+    // Drive a share of the connections until all of their requests are answered,
+    // returning the number of incorrect responses
+    private long drive(InetSocketAddress server, int count, int firstIndex, long perConnection, int depth)
+        throws IOException
+    {
+        long mismatches = 0;
+        ByteBuffer in = ByteBuffer.allocateDirect(64 * 1024);
+        try (Selector selector = Selector.open())
+        {
+            for (int i = 0; i < count; i++)
+            {
+                SocketChannel channel = SocketChannel.open(server);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                channel.configureBlocking(false);
+                Connection c = new Connection(channel, (int) (((firstIndex + (long) i * 7919) * 31) % REQUESTS));
+                SelectionKey key = channel.register(selector, SelectionKey.OP_READ, c);
+                fill(c, perConnection, depth);
+                write(key, c);
+            }
+
+            int open = count;
+            while (open > 0)
+            {
+                selector.select();
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext())
+                {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    Connection c = (Connection) key.attachment();
+                    if (key.isWritable())
+                        write(key, c);
+                    if (!key.isReadable())
+                        continue;
+
+                    in.clear();
+                    if (c.channel.read(in) < 0)
+                        throw new IOException("The server closed a connection with " + (c.sent - c.received) + " requests outstanding.");
+                    in.flip();
+                    while (in.hasRemaining())
+                    {
+                        byte r = in.get();
+                        if (r != '\n')
+                        {
+                            c.responseCode = (c.responseCode < 0 ? 0 : c.responseCode * 10) + (r - '0');
+                            continue;
+                        }
+                        if (c.responseCode != expected[(int) ((c.first + c.received) % REQUESTS)])
+                            mismatches++;
+                        c.responseCode = -1;
+                        c.received++;
+                    }
+
+                    if (c.received == perConnection)
+                    {
+                        key.cancel();
+                        c.channel.close();
+                        open--;
+                    }
+                    else if (c.out == null)
+                    {
+                        fill(c, perConnection, depth);
+                        write(key, c);
+                    }
+                }
+            }
+        }
+        return mismatches;
+    }
+
+    // Prepare the next run of requests that keeps the pipeline full, without
+    // wrapping around the shared requests
+    private void fill(Connection c, long perConnection, int depth)
+    {
+        long n = Math.min(depth - (c.sent - c.received), perConnection - c.sent);
+        if (n <= 0)
+            return;
+        int from = (int) ((c.first + c.sent) % REQUESTS);
+        int to = (int) Math.min(REQUESTS, from + n);
+        c.out = ByteBuffer.wrap(requests, lineStart[from], lineStart[to] - lineStart[from]);
+        c.sent += to - from;
+    }
+
+    private static void write(SelectionKey key, Connection c)
+        throws IOException
+    {
+        if (c.out == null)
+            return;
+        c.channel.write(c.out);
+        if (c.out.hasRemaining())
+            key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        else
+        {
+            c.out = null;
+            key.interestOps(SelectionKey.OP_READ);
+        }
+    }
+
+    /**
+     * Run the benchmark from the command line.
+     *
+     * @param args the command line arguments.
+     * @throws Exception if the benchmark fails.
+     */
+    public static void main(String[] args)
+        throws Exception
+    {
+        if (args.length < 4 || args.length > 7)
+        {
+            System.err.println("Usage: java org.gs1.GMNLineClientBenchmark host port connections requestsPerConnection [pipelineDepth [threads [errorFraction]]]");
+            System.exit(1);
+        }
+        InetSocketAddress server = new InetSocketAddress(args[0], Integer.parseInt(args[1]));
+        int depth = args.length > 4 ? Integer.parseInt(args[4]) : 64;
+        int threads = args.length > 5 ? Integer.parseInt(args[5]) : Runtime.getRuntime().availableProcessors();
+        double errorFraction = args.length > 6 ? Double.parseDouble(args[6]) : 0.05;
+        System.out.print(run(server, Integer.parseInt(args[2]), Long.parseLong(args[3]), depth, threads, errorFraction));
+    }
+
+}
@@ -0,0 +1,613 @@
+package org.gs1;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketOption;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Non-blocking TCP server that verifies GMNs using a pipelined line protocol,
+ * for clients such as scanner gateways for which HTTP is too heavy.
+ *
+ * <p>Each request is a complete GMN terminated by a line feed, optionally
+ * preceded by a carriage return. Each request receives one response, in
+ * order, giving the {@link GMNStatus} code of the GMN: either as a decimal
+ * line or as a single byte holding the code, according to the
+ * {@link ResponseFormat}. Clients may send any number of requests without
+ * waiting for responses.
+ *
+ * <p>Connections are served by a fixed number of event loops, each with its
+ * own selector. Where the platform supports SO_REUSEPORT every event loop
+ * accepts on its own listening socket bound to the same port, letting the
+ * kernel spread connections; otherwise a single listening socket hands
+ * connections to the event loops in turn. Requests are parsed directly from a
+ * direct buffer shared by the connections of an event loop, so that an idle
+ * connection holds only a few dozen bytes of state. The responses to all of
+ * the requests received by a read are written together, gathered with any
+ * responses still pending for that connection. A connection that does not
+ * collect its responses is not read from until it does.
+ *
+ * @author Copyright (c) 2019-2021 GS1 AISBL.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+public final class GMNLineServer implements AutoCloseable {
+
+    /**
+     * Format of the response to each request.
+     */
+    public enum ResponseFormat
+    {
+        /**
+         * The status code as decimal digits followed by a line feed.
+         */
+        LINE,
+
+        /**
+         * A single byte holding the status code.
+         */
+        BYTE
+    }
+
+    /**
+     * Size of the buffer into which each event loop reads.
+     */
+    private final static int READ_BUFFER = 64 * 1024;
+
+    /**
+     * Amount of unsent response data beyond which a connection is no longer read.
+     */
+    private final static int MAX_PENDING = 64 * 1024;
+
+    /**
+     * Longest line retained; anything longer is too long to be a GMN.
+     */
+    private final static int MAX_LINE = 32;
+
+    /**
+     * Time for which accepting is paused after it fails, such as when file
+     * descriptors run out, so that the event loop does not spin.
+     */
+    private final static long ACCEPT_BACKOFF_NANOS = 100 * 1000000L;
+
+    // The state of a connection between reads
+    private final static class Connection
+    {
+        final SocketChannel channel;
+        final byte[] line = new byte[MAX_LINE];
+        int lineLen;
+        byte last;
+        ByteBuffer pending;
+
+        Connection(SocketChannel channel)
+        {
+            this.channel = channel;
+        }
+    }
+
+    private final InetSocketAddress address;
+    private final ResponseFormat format;
+    private final EventLoop[] loops;
+    private final List<ServerSocketChannel> servers = new ArrayList<>();
+    private final AtomicInteger nextLoop = new AtomicInteger();
+    private final AtomicInteger connections = new AtomicInteger();
+    private final LongAdder requests = new LongAdder();
+    private volatile boolean running;
+    private int port;
+
+    /**
+     * Creates a server listening on all interfaces on the given port, with an
+     * event loop per processor and line responses.
+     *
+     * @param port the port, or 0 for an ephemeral port.
+     */
+    public GMNLineServer(int port)
+    {
+        this(new InetSocketAddress(port), Runtime.getRuntime().availableProcessors(), ResponseFormat.LINE);
+    }
+
+    /**
+     * Creates a server.
+     *
+     * @param address the address to listen on, with port 0 for an ephemeral port.
+     * @param loops number of event loops, at least 1.
+     * @param format the format of the responses.
+     * @throws IllegalArgumentException if the number of event loops is less than 1.
+     */
+    public GMNLineServer(InetSocketAddress address, int loops, ResponseFormat format)
+    {
+        if (loops < 1)
+            throw new IllegalArgumentException("At least one event loop is required.");
+        this.address = address;
+        this.format = format;
+        this.loops = new EventLoop[loops];
+    }
+
+    /**
+     * Start listening and serving connections.
+     *
+     * @throws IOException if the server cannot listen on its address.
+     * @throws IllegalStateException if the server has already been started.
+     */
+    public synchronized void start()
+        throws IOException
+    {
+        if (running || loops[0] != null)
+            throw new IllegalStateException("The server has already been started.");
+        running = true;
+        try
+        {
+            for (int i = 0; i < loops.length; i++)
+                loops[i] = new EventLoop(i);
+
+            ServerSocketChannel first = ServerSocketChannel.open();
+            servers.add(first);
+            SocketOption<Boolean> reusePort = loops.length > 1 ? reusePortOption(first) : null;
+            first.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            if (reusePort != null)
+                first.setOption(reusePort, true);
+            first.bind(address, 1024);
+            port = ((InetSocketAddress) first.getLocalAddress()).getPort();
+            loops[0].listen(first);
+
+            // With SO_REUSEPORT every event loop accepts for itself
+            if (reusePort != null)
+                for (int i = 1; i < loops.length; i++)
+                {
+                    ServerSocketChannel server = ServerSocketChannel.open();
+                    servers.add(server);
+                    server.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+                    server.setOption(reusePort, true);
+                    server.bind(new InetSocketAddress(address.getAddress(), port), 1024);
+                    loops[i].listen(server);
+                }
+        }
+        catch (IOException | RuntimeException e)
+        {
+            close();
+            throw e;
+        }
+
+        for (EventLoop loop : loops)
+            loop.thread.start();
+    }
+
+    // The SO_REUSEPORT option if the platform supports it. It is looked up by
+    // name as it is not available on all versions of Java.
+    @SuppressWarnings("unchecked")
+    private static SocketOption<Boolean> reusePortOption(ServerSocketChannel channel)
+    {
+        for (SocketOption<?> option : channel.supportedOptions())
+            if (option.name().equals("SO_REUSEPORT") && option.type() == Boolean.class)
+                return (SocketOption<Boolean>) option;
+        return null;
+    }
+
+    /**
+     * @return the port on which the server is listening.
+     */
+    public int getPort()
+    {
+        return port;
+    }
+
+    /**
+     * @return true if connections are accepted by every event loop on its own listening socket.
+     */
+    public boolean isReusePort()
+    {
+        return servers.size() > 1;
+    }
+
+    /**
+     * @return the number of open connections.
+     */
+    public int getConnections()
+    {
+        return connections.get();
+    }
+
+    /**
+     * @return the number of requests answered.
+     */
+    public long getRequests()
+    {
+        return requests.sum();
+    }
+
+    /**
+     * Stop the server, closing all connections and waiting for the event loops to finish.
+     */
+    @Override
+    public synchronized void close()
+    {
+        running = false;
+        for (EventLoop loop : loops)
+            if (loop != null)
+                loop.selector.wakeup();
+        for (EventLoop loop : loops)
+            if (loop != null && loop.thread.isAlive())
+            {
+                try
+                {
+                    loop.thread.join();
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        for (EventLoop loop : loops)
+            if (loop != null && !loop.thread.isAlive())
+                closeQuietly(loop.selector);
+        for (ServerSocketChannel server : servers)
+            closeQuietly(server);
+    }
+
+    private static void closeQuietly(Closeable c)
+    {
+        try
+        {
+            c.close();
+        }
+        catch (IOException e)
+        {
+            // Nothing more can be done
+        }
+    }
+
+    // An event loop serving a share of the connections
+    private final class EventLoop implements Runnable
+    {
+        final Selector selector;
+        final Thread thread;
+        final ConcurrentLinkedQueue<SocketChannel> handoff = new ConcurrentLinkedQueue<>();
+        final ByteBuffer in = ByteBuffer.allocateDirect(READ_BUFFER);
+        final ByteBuffer out = ByteBuffer.allocateDirect(READ_BUFFER * 2);
+        final ByteBuffer[] gather = new ByteBuffer[2];
+        final List<SelectionKey> paused = new ArrayList<>();
+        long resumeAccepting;
+        volatile boolean exited;
+
+        EventLoop(int index)
+            throws IOException
+        {
+            selector = Selector.open();
+            thread = new Thread(this, "gmn-line-server-" + index);
+            thread.setDaemon(true);
+        }
+
+        void listen(ServerSocketChannel server)
+            throws IOException
+        {
+            server.configureBlocking(false);
+            server.register(selector, SelectionKey.OP_ACCEPT);
+        }
+
+        @Override
+        public void run()
+        {
+            try
+            {
+                while (running)
+                {
+                    if (paused.isEmpty())
+                        selector.select();
+                    else
+                    {
+                        long wait = resumeAccepting - System.nanoTime();
+                        if (wait > 0)
+                            selector.select(Math.max(wait / 1000000, 1));
+                        if (System.nanoTime() - resumeAccepting >= 0)
+                        {
+                            for (SelectionKey key : paused)
+                                if (key.isValid())
+                                    key.interestOps(SelectionKey.OP_ACCEPT);
+                            paused.clear();
+                        }
+                    }
+                    SocketChannel handed;
+                    while ((handed = handoff.poll()) != null)
+                        register(handed);
+
+                    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while (it.hasNext())
+                    {
+                        SelectionKey key = it.next();
+                        it.remove();
+                        try
+                        {
+                            if (!key.isValid())
+                                continue;
+                            if (key.isAcceptable())
+                            {
+                                accept(key);
+                                continue;
+                            }
+                            if (key.isWritable())
+                                flush(key);
+                            if (key.isValid() && key.isReadable())
+                                read(key);
+                        }
+                        catch (IOException e)
+                        {
+                            disconnect(key);
+                        }
+                    }
+                }
+            }
+            catch (IOException | ClosedSelectorException e)
+            {
+                // The event loop cannot continue
+            }
+            finally
+            {
+                // Connections handed off from now on are closed by the sender
+                exited = true;
+                if (selector.isOpen())
+                    for (SelectionKey key : selector.keys())
+                        disconnect(key);
+                SocketChannel handed;
+                while ((handed = handoff.poll()) != null)
+                    closeQuietly(handed);
+                closeQuietly(selector);
+            }
+        }
+
+        // Accept the pending connections of a listening socket, which remains
+        // open whatever fails
+        void accept(SelectionKey key)
+        {
+            ServerSocketChannel server = (ServerSocketChannel) key.channel();
+            while (true)
+            {
+                SocketChannel channel;
+                try
+                {
+                    channel = server.accept();
+                }
+                catch (IOException e)
+                {
+                    // Most likely out of file descriptors: stop accepting
+                    // for a while, still serving the open connections
+                    key.interestOps(0);
+                    paused.add(key);
+                    resumeAccepting = System.nanoTime() + ACCEPT_BACKOFF_NANOS;
+                    return;
+                }
+                if (channel == null)
+                    return;
+
+                try
+                {
+                    channel.configureBlocking(false);
+                    channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                }
+                catch (IOException e)
+                {
+                    // Only this connection is lost, typically reset by the client
+                    closeQuietly(channel);
+                    continue;
+                }
+
+                EventLoop target = isReusePort() ? this : loops[Math.floorMod(nextLoop.getAndIncrement(), loops.length)];
+                if (target == this)
+                    register(channel);
+                else
+                {
+                    target.handoff.add(channel);
+                    target.selector.wakeup();
+                    if (target.exited && target.handoff.remove(channel))
+                        closeQuietly(channel);
+                }
+            }
+        }
+
+        void register(SocketChannel channel)
+        {
+            try
+            {
+                channel.register(selector, SelectionKey.OP_READ, new Connection(channel));
+                connections.incrementAndGet();
+            }
+            catch (IOException e)
+            {
+                closeQuietly(channel);
+            }
+        }
+
+        // Close the channel of a key, counting connections only as they are
+        // closed since cancelled keys remain registered until the next select
+        void disconnect(SelectionKey key)
+        {
+            key.cancel();
+            boolean open = key.channel().isOpen();
+            closeQuietly(key.channel());
+            if (open && key.attachment() != null)
+                connections.decrementAndGet();
+        }
+
+        // Answer every complete request received
+        void read(SelectionKey key)
+            throws IOException
+        {
+            Connection c = (Connection) key.attachment();
+            in.clear();
+            if (c.channel.read(in) < 0)
+            {
+                disconnect(key);
+                return;
+            }
+            in.flip();
+            out.clear();
+
+            Object event = GMNEvents.EVENTS.beginBatch();
+            int answered = 0, valid = 0, rejected = 0;
+            byte[] line = c.line;
+            for (int i = 0, end = in.limit(); i < end; i++)
+            {
+                byte b = in.get(i);
+                if (b != '\n')
+                {
+                    if (c.lineLen < MAX_LINE)
+                        line[c.lineLen] = b;
+                    if (c.lineLen <= MAX_LINE)
+                        c.lineLen++;
+                    c.last = b;
+                    continue;
+                }
+
+                int len = c.lineLen > 0 && c.last == '\r' ? c.lineLen - 1 : c.lineLen;
+                GMNStatus status = len >= MAX_LINE ? GMNStatus.TOO_LONG : GMN.status(line, 0, len, true);
+                c.lineLen = 0;
+                c.last = 0;
+
+                if (format == ResponseFormat.BYTE)
+                    out.put((byte) status.code());
+                else
+                {
+                    int code = status.code();
+                    if (code >= 10)
+                        out.put((byte) ('0' + code / 10));
+                    out.put((byte) ('0' + code % 10));
+                    out.put((byte) '\n');
+                }
+                answered++;
+                if (status == GMNStatus.VALID)
+                    valid++;
+                else if (status != GMNStatus.INCORRECT_CHECK)
+                {
+                    rejected++;
+                    GMNEvents.EVENTS.rejected(status);
+                }
+            }
+
+            if (answered == 0)
+                return;
+            requests.add(answered);
+            GMNEvents.EVENTS.endBatch(event, "GMNLineServer", answered, valid, rejected);
+            out.flip();
+            send(key, c);
+        }
+
+        // Write the responses in the output buffer after any still pending
+        void send(SelectionKey key, Connection c)
+            throws IOException
+        {
+            if (c.pending == null)
+            {
+                c.channel.write(out);
+                if (!out.hasRemaining())
+                    return;
+                c.pending = ByteBuffer.allocate(Math.max(out.remaining(), 1024));
+                c.pending.put(out);
+                c.pending.flip();
+            }
+            else
+            {
+                gather[0] = c.pending;
+                gather[1] = out;
+                c.channel.write(gather);
+                gather[0] = gather[1] = null;
+                if (out.hasRemaining())
+                {
+                    c.pending.compact();
+                    if (c.pending.remaining() < out.remaining())
+                    {
+                        ByteBuffer bigger = ByteBuffer.allocate((c.pending.position() + out.remaining()) * 2);
+                        c.pending.flip();
+                        bigger.put(c.pending);
+                        c.pending = bigger;
+                    }
+                    c.pending.put(out);
+                    c.pending.flip();
+                }
+                else if (!c.pending.hasRemaining())
+                {
+                    c.pending = null;
+                    key.interestOps(SelectionKey.OP_READ);
+                    return;
+                }
+            }
+            key.interestOps(c.pending.remaining() > MAX_PENDING ? SelectionKey.OP_WRITE
+                                                                : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        }
+
+        // Write pending responses once the connection can accept them
+        void flush(SelectionKey key)
+            throws IOException
+        {
+            Connection c = (Connection) key.attachment();
+            c.channel.write(c.pending);
+            if (!c.pending.hasRemaining())
+            {
+                c.pending = null;
+                key.interestOps(SelectionKey.OP_READ);
+            }
+            else if (c.pending.remaining() <= MAX_PENDING)
+                key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        }
+    }
+
+    /**
+     * Run a server from the command line until it is terminated.
+     *
+     * <p>Usage: java org.gs1.GMNLineServer port [eventLoops] [--byte]
+     *
+     * @param args the command line arguments.
+     * @throws IOException if the server cannot listen on the port.
+     * @throws InterruptedException if interrupted while serving.
+     */
+    public static void main(String[] args)
+        throws IOException, InterruptedException
+    {
+        boolean bytes = args.length > 0 && args[args.length - 1].equals("--byte");
+        int n = bytes ? args.length - 1 : args.length;
+        if (n < 1 || n > 2)
+        {
+            System.err.println("Usage: java org.gs1.GMNLineServer port [eventLoops] [--byte]");
+            System.exit(1);
+        }
+
+        int loops = n == 2 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        GMNLineServer server = new GMNLineServer(new InetSocketAddress(Integer.parseInt(args[0])), loops,
+                                                 bytes ? ResponseFormat.BYTE : ResponseFormat.LINE);
+        server.start();
+        System.out.println("Listening on port " + server.getPort() + " with " + loops + " event loops" +
+                           (server.isReusePort() ? " using SO_REUSEPORT" : ""));
+        Runtime.getRuntime().addShutdownHook(new Thread(server::close));
+        while (true)
+        {
+            Thread.sleep(10000);
+            System.out.println(server.getConnections() + " connections, " + server.getRequests() + " requests");
+        }
+    }
+
+}
@@ -0,0 +1,337 @@
+package org.gs1;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/**
+ * Finds valid GMNs embedded in unstructured text, such as documents converted
+ * to text, EDI segments and application logs.
+ *
+ * <p>Rather than verifying every substring, the scanner considers each pair
+ * of cset32 characters as a possible check character pair and only when a
+ * run of five digits, which could begin a GS1 Company Prefix, lies within
+ * reach before it and is followed only by cset82 characters. The weighted sum
+ * is then accumulated backwards from the check character pair, since the
+ * weights are aligned to the end of the GMN, so that every candidate length
+ * from 8 to 25 characters is tested with a single pass over at most 23
+ * characters and a constant time comparison each.
+ *
+ * <p>Every valid candidate is reported, including those that overlap. The
+ * input is ASCII or any ASCII compatible encoding and offsets are in bytes.
+ * Streams are scanned in bounded memory. Files may be scanned in parallel,
+ * in chunks, with the matches delivered in order.
+ *
+ * @author Copyright (c) 2019-2021 GS1 AISBL.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+public final class GMNScanner {
+
+    /**
+     * Bytes of context needed beyond the start of a candidate: the longest
+     * partial GMN and its check character pair.
+     */
+    private final static int REACH = GMN.MAX_PART_LENGTH + 2;
+
+    /**
+     * Size of the buffer used when scanning a stream.
+     */
+    private final static int BUFFER = 64 * 1024;
+
+    /**
+     * Default size of the chunks in which a file is scanned in parallel.
+     */
+    public final static int DEFAULT_CHUNK_SIZE = 16 * 1024 * 1024;
+
+    /**
+     * A valid GMN found within the input.
+     */
+    public final static class Match
+    {
+        private final long offset;
+        private final String gmn;
+
+        Match(long offset, String gmn)
+        {
+            this.offset = offset;
+            this.gmn = gmn;
+        }
+
+        /**
+         * @return the offset in bytes of the GMN within the input.
+         */
+        public long getOffset()
+        {
+            return offset;
+        }
+
+        /**
+         * @return the GMN.
+         */
+        public String getGmn()
+        {
+            return gmn;
+        }
+
+        @Override
+        public String toString()
+        {
+            return offset + "\t" + gmn;
+        }
+    }
+
+    private GMNScanner() {}
+
+    /**
+     * Scan a stream, reporting each valid GMN in order of the end of the GMN.
+     *
+     * @param in the stream to scan.
+     * @param matches receives each match.
+     * @return the number of matches.
+     * @throws IOException if the stream cannot be read.
+     */
+    public static long scan(InputStream in, Consumer<Match> matches)
+        throws IOException
+    {
+        byte[] buf = new byte[BUFFER + REACH];
+        int len = 0;
+        long base = 0;
+        int from = 0;
+        long found = 0;
+        boolean eof = false;
+        while (!eof)
+        {
+            int n = in.read(buf, len, buf.length - len);
+            if (n < 0)
+                eof = true;
+            else
+                len += n;
+            if (!eof && len < buf.length)
+                continue;
+
+            found += scan(buf, len, from, len - 1, 0, len, base, matches);
+
+            // Keep enough of the input to complete candidates ending after it
+            int keep = Math.min(len, REACH);
+            System.arraycopy(buf, len - keep, buf, 0, keep);
+            base += len - keep;
+            from = keep - 1;
+            len = keep;
+        }
+        return found;
+    }
+
+    /**
+     * Scan a byte array.
+     *
+     * @param b the bytes to scan.
+     * @param matches receives each match.
+     * @return the number of matches.
+     */
+    public static long scan(byte[] b, Consumer<Match> matches)
+    {
+        return scan(b, b.length, 0, b.length - 1, 0, b.length, 0, matches);
+    }
+
+    /**
+     * Scan a file in parallel chunks, reporting the matches in order of the
+     * chunk in which each GMN starts.
+     *
+     * @param file the file to scan.
+     * @param threads number of threads.
+     * @param matches receives each match, on the calling thread.
+     * @return the number of matches.
+     * @throws IOException if the file cannot be read.
+     */
+    public static long scan(Path file, int threads, Consumer<Match> matches)
+        throws IOException
+    {
+        return scan(file, threads, DEFAULT_CHUNK_SIZE, matches);
+    }
+
+    /**
+     * Scan a file in parallel chunks of the given size, reporting the matches
+     * in order of the chunk in which each GMN starts. At most two chunks per
+     * thread are held in memory.
+     *
+     * @param file the file to scan.
+     * @param threads number of threads.
+     * @param chunkSize size of each chunk in bytes.
+     * @param matches receives each match, on the calling thread.
+     * @return the number of matches.
+     * @throws IOException if the file cannot be read.
+     */
+    public static long scan(Path file, int threads, int chunkSize, Consumer<Match> matches)
+        throws IOException
+    {
+        if (threads < 1 || chunkSize < 1)
+            throw new IllegalArgumentException("The number of threads and chunk size must be positive.");
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ))
+        {
+            long size = channel.size();
+            String source = file.toString();
+            Deque<Future<List<Match>>> pending = new ArrayDeque<>();
+            long found = 0;
+            for (long start = 0; start < size || !pending.isEmpty(); )
+            {
+                while (start < size && pending.size() < threads * 2)
+                {
+                    long chunkStart = start;
+                    int owned = (int) Math.min(chunkSize, size - start);
+                    pending.add(pool.submit(() -> scanChunk(channel, source, chunkStart, owned, size)));
+                    start += owned;
+                }
+                for (Match m : pending.remove().get())
+                {
+                    matches.accept(m);
+                    found++;
+                }
+            }
+            return found;
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while scanning " + file, e);
+        }
+        catch (ExecutionException e)
+        {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw new IOException(e.getCause());
+        }
+        finally
+        {
+            pool.shutdownNow();
+        }
+    }
+
+    // Scan the candidates starting within a chunk of a file, reading beyond
+    // its end as far as they could extend
+    private static List<Match> scanChunk(FileChannel channel, String source, long start, int owned, long size)
+        throws IOException
+    {
+        Object event = GMNEvents.EVENTS.beginChunk();
+        int len = (int) Math.min(owned + (long) REACH - 1, size - start);
+        ByteBuffer bb = ByteBuffer.allocate(len);
+        while (bb.hasRemaining())
+            if (channel.read(bb, start + bb.position()) < 0)
+                break;
+        List<Match> found = new ArrayList<>();
+        scan(bb.array(), bb.position(), 0, bb.position() - 1, 0, owned, start, found::add);
+        GMNEvents.EVENTS.endChunk(event, source, start, owned, found.size(), 0);
+        return found;
+    }
+
+    // Report the valid GMNs of buf[0, len) whose check character pair starts
+    // in [eFrom, eTo) and which start in [sFrom, sTo), offsetting by base
+    private static long scan(byte[] buf, int len, int eFrom, int eTo, int sFrom, int sTo, long base, Consumer<Match> matches)
+    {
+        long found = 0;
+        int lastBad = -1;     // Last position before e not in cset82
+        int lastAnchor = -1;  // Last start of five digits ending before e
+        int digits = 0;       // Digits ending before e
+
+        // Establish the state from the context preceding the first candidate
+        for (int i = Math.max(0, eFrom - REACH); i < eTo; i++)
+        {
+            if (i > 0)
+            {
+                int c = buf[i - 1];
+                digits = c >= '0' && c <= '9' ? digits + 1 : 0;
+                if (GMN.cset82Value(c & 0xFF) < 0)
+                    lastBad = i - 1;
+                if (digits >= 5)
+                    lastAnchor = i - 5;
+            }
+            if (i < eFrom)
+                continue;
+
+            // Candidates start after the last character outside cset82, and
+            // have at least one character following the anchor
+            int lo = Math.max(Math.max(lastBad + 1, i - GMN.MAX_PART_LENGTH), sFrom);
+            int hi = Math.min(i - 6, sTo - 1);
+            if (lo > hi || lastAnchor < lo)
+                continue;
+            int c1 = GMN.cset32Value(buf[i] & 0xFF);
+            int c2 = GMN.cset32Value(buf[i + 1] & 0xFF);
+            if (c1 < 0 || c2 < 0)
+                continue;
+            int check = c1 * 32 + c2;
+
+            int sum = 0;
+            for (int p = 1; p <= i - lo; p++)
+            {
+                sum += GMN.cset82Value(buf[i - p] & 0xFF) * GMN.weight(0, p);
+                int s = i - p;
+                if (s <= hi && sum % 1021 == check && isAnchor(buf, s))
+                {
+                    matches.accept(new Match(base + s, new String(buf, s, p + 2, StandardCharsets.US_ASCII)));
+                    found++;
+                }
+            }
+        }
+        return found;
+    }
+
+    // Whether five digits start at the given position
+    private static boolean isAnchor(byte[] buf, int s)
+    {
+        for (int i = s; i < s + 5; i++)
+            if (buf[i] < '0' || buf[i] > '9')
+                return false;
+        return true;
+    }
+
+    /**
+     * Scan a file from the command line, printing the offset and value of each GMN found.
+     *
+     * <p>Usage: java org.gs1.GMNScanner file [threads]
+     *
+     * @param args the command line arguments.
+     * @throws IOException if the file cannot be read.
+     */
+    public static void main(String[] args)
+        throws IOException
+    {
+        if (args.length < 1 || args.length > 2)
+        {
+            System.err.println("Usage: java org.gs1.GMNScanner file [threads]");
+            System.exit(1);
+        }
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        long found = scan(Paths.get(args[0]), threads, System.out::println);
+        System.err.println(found + " GMNs found");
+    }
+
+}
@@ -0,0 +1,508 @@
+package org.gs1;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Processes large files across several worker processes, sending every line
+ * for a given GS1 Company Prefix to the same worker so that each worker's
+ * GS1 Company Prefix specific state is reused.
+ *
+ * <p>The input has tab separated GS1 Company Prefix, model reference and,
+ * optionally, check character pair columns. Each line is written to the
+ * output, in the original order, with the calculated check character pair
+ * and {@link GMNStatus} code appended, as described for
+ * {@link GMNCsvProcessor}.
+ *
+ * <p>The coordinator launches {@link GMNShardWorker} JVMs and communicates
+ * with them over their standard input and output. The input is split into
+ * chunks of lines, and the lines of each chunk are assigned to workers by
+ * consistent hashing of their GS1 Company Prefix over a ring of virtual
+ * nodes, so that changing the number of workers moves only a proportionate
+ * share of the GS1 Company Prefixes. Each worker receives its share of a
+ * chunk as a single batch, and the results are merged back into the
+ * original order as they arrive. The number of chunks in flight is bounded.
+ *
+ * @author Copyright (c) 2019-2021 GS1 AISBL.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+public final class GMNShardCoordinator {
+
+    /**
+     * Default number of virtual nodes per worker on the hash ring.
+     */
+    public final static int DEFAULT_VIRTUAL_NODES = 128;
+
+    /**
+     * Default number of lines per chunk.
+     */
+    public final static int DEFAULT_CHUNK_LINES = 8192;
+
+    // Worker assigned to blank lines, which are passed through
+    private final static byte BLANK = -1;
+
+    // The routing of the lines of a chunk, for merging the results
+    private final static class Chunk
+    {
+        final byte[] route;
+        final int lines;
+        final boolean[] sent;
+
+        Chunk(byte[] route, int lines, boolean[] sent)
+        {
+            this.route = route;
+            this.lines = lines;
+            this.sent = sent;
+        }
+    }
+
+    private final static Chunk END = new Chunk(null, 0, null);
+
+    // Marks the end of a worker's results
+    private final static byte[] EXITED = new byte[0];
+
+    private final int workers;
+    private final long[] ring;
+    private final byte[] ringWorker;
+    private int chunkLines = DEFAULT_CHUNK_LINES;
+    private String classPath = System.getProperty("java.class.path");
+    private List<String> jvmOptions = new ArrayList<>();
+    private boolean workerStatistics;
+
+    /**
+     * Creates a coordinator with the default number of virtual nodes per worker.
+     *
+     * @param workers number of worker processes, from 1 to 127.
+     */
+    public GMNShardCoordinator(int workers)
+    {
+        this(workers, DEFAULT_VIRTUAL_NODES);
+    }
+
+    /**
+     * Creates a coordinator.
+     *
+     * @param workers number of worker processes, from 1 to 127.
+     * @param virtualNodes number of points per worker on the hash ring.
+     * @throws IllegalArgumentException if the number of workers or virtual nodes is out of range.
+     */
+    public GMNShardCoordinator(int workers, int virtualNodes)
+    {
+        if (workers < 1 || workers > Byte.MAX_VALUE)
+            throw new IllegalArgumentException("The number of workers must be from 1 to " + Byte.MAX_VALUE + ".");
+        if (virtualNodes < 1)
+            throw new IllegalArgumentException("At least one virtual node per worker is required.");
+        this.workers = workers;
+
+        // Place the virtual nodes on the ring, ordered by position
+        long[] points = new long[workers * virtualNodes];
+        for (int w = 0, i = 0; w < workers; w++)
+            for (int v = 0; v < virtualNodes; v++, i++)
+                points[i] = mix(((long) w << 32) + v) & ~0x7FL | w;
+        Arrays.sort(points);
+        ring = new long[points.length];
+        ringWorker = new byte[points.length];
+        for (int i = 0; i < points.length; i++)
+        {
+            ring[i] = points[i] & ~0x7FL;
+            ringWorker[i] = (byte) (points[i] & 0x7F);
+        }
+    }
+
+    /**
+     * Sets the number of lines per chunk.
+     *
+     * @param chunkLines lines per chunk, at least 1.
+     * @throws IllegalArgumentException if the number of lines is less than 1.
+     */
+    public void setChunkLines(int chunkLines)
+    {
+        if (chunkLines < 1)
+            throw new IllegalArgumentException("A chunk must have at least one line.");
+        this.chunkLines = chunkLines;
+    }
+
+    /**
+     * Sets the class path of the worker processes, by default that of this process.
+     *
+     * @param classPath the class path.
+     */
+    public void setClassPath(String classPath)
+    {
+        this.classPath = classPath;
+    }
+
+    /**
+     * Sets additional options for the worker JVMs, such as heap size.
+     *
+     * @param options the JVM options.
+     */
+    public void setJvmOptions(String... options)
+    {
+        jvmOptions = new ArrayList<>(Arrays.asList(options));
+    }
+
+    /**
+     * Sets whether each worker reports, on exit, how often its per GS1
+     * Company Prefix state was reused. The reports are written to the
+     * standard error of this process.
+     *
+     * @param workerStatistics true to report worker statistics.
+     */
+    public void setWorkerStatistics(boolean workerStatistics)
+    {
+        this.workerStatistics = workerStatistics;
+    }
+
+    /**
+     * Return the worker to which lines having the given GS1 Company Prefix are sent.
+     *
+     * @param gcp the GS1 Company Prefix.
+     * @return the worker index.
+     */
+    public int shardOf(String gcp)
+    {
+        byte[] b = gcp.getBytes(StandardCharsets.ISO_8859_1);
+        return shardOf(b, 0, b.length);
+    }
+
+    private int shardOf(byte[] b, int off, int len)
+    {
+        long h = 0xCBF29CE484222325L;
+        for (int i = off; i < off + len; i++)
+            h = (h ^ (b[i] & 0xFF)) * 0x100000001B3L;
+        h = mix(h) & ~0x7FL;
+
+        // First virtual node at or after the hash, wrapping around the ring
+        int i = Arrays.binarySearch(ring, h);
+        if (i < 0)
+            i = -i - 1;
+        return ringWorker[i == ring.length ? 0 : i];
+    }
+
+    /**
+     * Process an input file across the worker processes, writing the output file.
+     *
+     * @param input the file to read.
+     * @param output the file to write.
+     * @return the number of lines having each status.
+     * @throws IOException if a file cannot be read or written, or a worker fails.
+     */
+    public Map<GMNStatus, Long> process(Path input, Path output)
+        throws IOException
+    {
+        List<Process> processes = new ArrayList<>();
+        List<DataOutputStream> toWorkers = new ArrayList<>();
+        List<BlockingQueue<byte[]>> results = new ArrayList<>();
+        BlockingQueue<Chunk> chunks = new ArrayBlockingQueue<>(4);
+        IOException[] failure = new IOException[1];
+        Thread splitter = null;
+
+        try
+        {
+            String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+            for (int w = 0; w < workers; w++)
+            {
+                List<String> command = new ArrayList<>();
+                command.add(java);
+                command.addAll(jvmOptions);
+                command.add("-cp");
+                command.add(classPath);
+                command.add(GMNShardWorker.class.getName());
+                if (workerStatistics)
+                    command.add("--stats");
+                Process p = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+                processes.add(p);
+                toWorkers.add(new DataOutputStream(new BufferedOutputStream(p.getOutputStream(), 1 << 16)));
+
+                // Collect each worker's results as they arrive
+                BlockingQueue<byte[]> queue = new LinkedBlockingQueue<>();
+                results.add(queue);
+                DataInputStream from = new DataInputStream(new BufferedInputStream(p.getInputStream(), 1 << 16));
+                Thread reader = new Thread(() -> {
+                    try
+                    {
+                        while (true)
+                        {
+                            byte[] batch = new byte[from.readInt()];
+                            from.readFully(batch);
+                            queue.add(batch);
+                        }
+                    }
+                    catch (IOException e)
+                    {
+                        // End of the worker's output
+                    }
+                    queue.add(EXITED);
+                }, "gmn-shard-reader-" + w);
+                reader.setDaemon(true);
+                reader.start();
+            }
+
+            // Split the input into chunks and send each worker its share
+            splitter = new Thread(() -> {
+                try
+                {
+                    split(input, toWorkers, chunks);
+                }
+                catch (IOException e)
+                {
+                    failure[0] = e;
+                }
+                catch (InterruptedException e)
+                {
+                    // Abandoned by the merger
+                }
+                finally
+                {
+                    for (DataOutputStream out : toWorkers)
+                    {
+                        try
+                        {
+                            out.close();
+                        }
+                        catch (IOException e)
+                        {
+                            // The worker has already exited
+                        }
+                    }
+                    try
+                    {
+                        chunks.put(END);
+                    }
+                    catch (InterruptedException e)
+                    {
+                        // Abandoned by the merger
+                    }
+                }
+            }, "gmn-shard-splitter");
+            splitter.setDaemon(true);
+            splitter.start();
+
+            Map<GMNStatus, Long> counts = merge(output, chunks, results);
+            splitter.join();
+            if (failure[0] != null)
+                throw failure[0];
+            for (Process p : processes)
+                if (!p.waitFor(10, TimeUnit.SECONDS) || p.exitValue() != 0)
+                    throw new IOException("A worker process did not exit cleanly.");
+            return counts;
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while processing " + input, e);
+        }
+        finally
+        {
+            if (splitter != null)
+                splitter.interrupt();
+            for (Process p : processes)
+                p.destroy();
+        }
+    }
+
+    // Read the input, routing each chunk of lines to the workers by GS1 Company Prefix
+    private void split(Path input, List<DataOutputStream> toWorkers, BlockingQueue<Chunk> chunks)
+        throws IOException, InterruptedException
+    {
+        byte[][] batches = new byte[workers][1 << 16];
+        int[] lengths = new int[workers];
+        byte[] line = new byte[256];
+
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(input), 1 << 16))
+        {
+            boolean eof = false;
+            while (!eof)
+            {
+                byte[] route = new byte[chunkLines];
+                int lines = 0;
+                Arrays.fill(lengths, 0);
+
+                while (lines < chunkLines)
+                {
+                    // Read a line, without its terminator
+                    int len = 0, c;
+                    while ((c = in.read()) >= 0 && c != '\n')
+                    {
+                        if (len == line.length)
+                            line = Arrays.copyOf(line, len * 2);
+                        line[len++] = (byte) c;
+                    }
+                    if (c < 0 && len == 0)
+                    {
+                        eof = true;
+                        break;
+                    }
+                    if (len > 0 && line[len - 1] == '\r')
+                        len--;
+                    if (len == 0)
+                    {
+                        route[lines++] = BLANK;
+                        continue;
+                    }
+
+                    int gcpLen = 0;
+                    while (gcpLen < len && line[gcpLen] != '\t')
+                        gcpLen++;
+                    int w = shardOf(line, 0, gcpLen);
+                    route[lines++] = (byte) w;
+                    if (batches[w].length < lengths[w] + len + 1)
+                        batches[w] = Arrays.copyOf(batches[w], Math.max(batches[w].length * 2, lengths[w] + len + 1));
+                    System.arraycopy(line, 0, batches[w], lengths[w], len);
+                    lengths[w] += len;
+                    batches[w][lengths[w]++] = '\n';
+                }
+
+                if (lines == 0)
+                    break;
+                boolean[] sent = new boolean[workers];
+                for (int w = 0; w < workers; w++)
+                    sent[w] = lengths[w] > 0;
+                chunks.put(new Chunk(route, lines, sent));
+                for (int w = 0; w < workers; w++)
+                    if (sent[w])
+                    {
+                        DataOutputStream out = toWorkers.get(w);
+                        out.writeInt(lengths[w]);
+                        out.write(batches[w], 0, lengths[w]);
+                        out.flush();
+                    }
+            }
+        }
+    }
+
+    // Write the results of each chunk in the original order of its lines
+    private Map<GMNStatus, Long> merge(Path output, BlockingQueue<Chunk> chunks, List<BlockingQueue<byte[]>> results)
+        throws IOException, InterruptedException
+    {
+        long[] counts = new long[GMNStatus.values().length];
+        byte[][] batch = new byte[workers][];
+        int[] pos = new int[workers];
+
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(output), 1 << 16))
+        {
+            while (true)
+            {
+                Chunk chunk = chunks.take();
+                if (chunk == END)
+                    break;
+                for (int w = 0; w < workers; w++)
+                    if (chunk.sent[w])
+                    {
+                        batch[w] = results.get(w).take();
+                        if (batch[w] == EXITED)
+                            throw new IOException("Worker " + w + " exited before returning its results.");
+                        pos[w] = 0;
+                    }
+
+                for (int i = 0; i < chunk.lines; i++)
+                {
+                    int w = chunk.route[i];
+                    if (w == BLANK)
+                    {
+                        out.write('\n');
+                        continue;
+                    }
+                    byte[] b = batch[w];
+                    int start = pos[w], end = start;
+                    while (b[end] != '\n')
+                        end++;
+                    out.write(b, start, end - start + 1);
+                    pos[w] = end + 1;
+
+                    // The status code is the last field
+                    int code = 0, digit = end - 1, scale = 1;
+                    for (; b[digit] != '\t'; digit--, scale *= 10)
+                        code += (b[digit] - '0') * scale;
+                    counts[GMNStatus.fromCode(code).ordinal()]++;
+                }
+            }
+        }
+
+        Map<GMNStatus, Long> result = new EnumMap<>(GMNStatus.class);
+        for (GMNStatus s : GMNStatus.values())
+            result.put(s, counts[s.ordinal()]);
+        return result;
+    }
+
+    // Spread the bits of a hash
+    private static long mix(long h)
+    {
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * Process a file from the command line, reporting the throughput so that
+     * the effect of the number of workers can be measured.
+     *
+     * <p>Usage: java org.gs1.GMNShardCoordinator input output workers [--stats]
+     *
+     * @param args the command line arguments.
+     * @throws IOException if a file cannot be read or written, or a worker fails.
+     */
+    public static void main(String[] args)
+        throws IOException
+    {
+        if (args.length < 3 || args.length > 4 || args.length == 4 && !args[3].equals("--stats"))
+        {
+            System.err.println("Usage: java org.gs1.GMNShardCoordinator input output workers [--stats]");
+            System.exit(1);
+        }
+
+        GMNShardCoordinator c = new GMNShardCoordinator(Integer.parseInt(args[2]));
+        c.setWorkerStatistics(args.length == 4);
+        long start = System.nanoTime();
+        Map<GMNStatus, Long> counts = c.process(Paths.get(args[0]), Paths.get(args[1]));
+        double secs = (System.nanoTime() - start) / 1e9;
+
+        long lines = 0;
+        for (Map.Entry<GMNStatus, Long> e : counts.entrySet())
+        {
+            lines += e.getValue();
+            if (e.getValue() > 0)
+                System.out.println(e.getKey() + ": " + e.getValue());
+        }
+        System.out.println(String.format("Processed %d lines with %s workers in %.2fs: %.0f lines/s",
+                                         lines, args[2], secs, lines / secs));
+    }
+
+}
@@ -0,0 +1,222 @@
+package org.gs1;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Worker process of {@link GMNShardCoordinator}, which launches it; it is not
+ * intended to be run directly.
+ *
+ * <p>The worker reads batches of tab separated GS1 Company Prefix, model
+ * reference and optional check character pair lines from standard input and
+ * writes, for each batch, the lines with the calculated check character pair
+ * and {@link GMNStatus} code appended, in the same format as
+ * {@link GMNCsvProcessor}. As there, an empty third field is reported as
+ * CHECK_WRONG_LENGTH while a line of two fields is only completed. Each batch
+ * is framed by its length in bytes.
+ *
+ * <p>Since the coordinator sends every line for a given GS1 Company Prefix to
+ * the same worker, the worker caches, per GS1 Company Prefix, its
+ * contribution to the weighted sum for every possible model reference length,
+ * so that only the model reference remains to be summed for each line.
+ *
+ * @author Copyright (c) 2019-2021 GS1 AISBL.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+public final class GMNShardWorker {
+
+    /**
+     * Maximum number of GS1 Company Prefixes whose sums are cached.
+     */
+    private final static int CACHE_SIZE = 1 << 16;
+
+    // Contribution of each GS1 Company Prefix to the weighted sum, indexed by
+    // model reference length, evicting the least recently used
+    private final Map<String, int[]> gcpSums = new LinkedHashMap<String, int[]>(1024, 0.75f, true)
+    {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, int[]> eldest)
+        {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    private long hits;
+    private long misses;
+
+    GMNShardWorker() {}
+
+    // Process a batch of newline terminated lines, returning the output lines
+    byte[] process(byte[] in, int len)
+    {
+        byte[] out = new byte[len + len / 2 + 64];
+        int o = 0;
+        int lines = 0, valid = 0, rejected = 0;
+        Object event = GMNEvents.EVENTS.beginBatch();
+
+        for (int start = 0; start < len; )
+        {
+            int end = start;
+            while (end < len && in[end] != '\n')
+                end++;
+
+            // Fields: GS1 Company Prefix, model reference and optionally check characters
+            int gcpEnd = field(in, start, end);
+            int modelStart = Math.min(gcpEnd + 1, end);
+            int modelEnd = field(in, modelStart, end);
+            int checksStart = Math.min(modelEnd + 1, end);
+            int checksEnd = field(in, checksStart, end);
+            int gcpLen = gcpEnd - start, modelLen = modelEnd - modelStart, checksLen = checksEnd - checksStart;
+            boolean checked = modelEnd < end && in[modelEnd] == '\t';
+
+            GMNStatus partial = GMN.status(in, start, gcpLen, in, modelStart, modelLen, null, 0, 0);
+            GMNStatus status = partial;
+            int sum = -1;
+            if (partial == GMNStatus.VALID)
+            {
+                sum = checkSum(in, start, gcpLen, modelStart, modelLen);
+                if (checked)
+                    status = verify(in, checksStart, checksLen, sum);
+            }
+            else if (checked)
+                status = GMN.status(in, start, gcpLen, in, modelStart, modelLen, in, checksStart, checksLen);
+
+            if (out.length - o < end - start + 8)
+                out = Arrays.copyOf(out, Math.max(out.length * 2, o + end - start + 8));
+            System.arraycopy(in, start, out, o, end - start);
+            o += end - start;
+            out[o++] = '\t';
+            if (sum >= 0)
+            {
+                out[o++] = (byte) GMN.cset32Char(sum / 32);
+                out[o++] = (byte) GMN.cset32Char(sum % 32);
+            }
+            out[o++] = '\t';
+            int code = status.code();
+            if (code >= 10)
+                out[o++] = (byte) ('0' + code / 10);
+            out[o++] = (byte) ('0' + code % 10);
+            out[o++] = '\n';
+
+            lines++;
+            if (status == GMNStatus.VALID)
+                valid++;
+            else if (status != GMNStatus.INCORRECT_CHECK)
+            {
+                rejected++;
+                GMNEvents.EVENTS.rejected(status);
+            }
+            start = end + 1;
+        }
+
+        GMNEvents.EVENTS.endBatch(event, "GMNShardWorker", lines, valid, rejected);
+        return Arrays.copyOf(out, o);
+    }
+
+    // End of the tab separated field starting at the given position
+    private static int field(byte[] in, int pos, int end)
+    {
+        while (pos < end && in[pos] != '\t' && in[pos] != '\r')
+            pos++;
+        return pos;
+    }
+
+    // Weighted sum of a well-formed partial GMN using the cached contribution
+    // of its GS1 Company Prefix
+    private int checkSum(byte[] in, int gcpOff, int gcpLen, int modelOff, int modelLen)
+    {
+        String gcp = new String(in, gcpOff, gcpLen, StandardCharsets.US_ASCII);
+        int[] sums = gcpSums.get(gcp);
+        if (sums == null)
+        {
+            misses++;
+            sums = new int[GMN.MAX_PART_LENGTH - gcpLen + 1];
+            for (int m = 1; m < sums.length; m++)
+                for (int i = 0; i < gcpLen; i++)
+                    sums[m] += GMN.cset82Value(in[gcpOff + i] & 0xFF) * GMN.weight(i, gcpLen + m);
+            gcpSums.put(gcp, sums);
+        }
+        else
+            hits++;
+
+        int sum = sums[modelLen];
+        for (int i = 0; i < modelLen; i++)
+            sum += GMN.cset82Value(in[modelOff + i] & 0xFF) * GMN.weight(gcpLen + i, gcpLen + modelLen);
+        return sum % 1021;
+    }
+
+    // Status of the given check characters of a well-formed partial GMN with the given sum
+    private static GMNStatus verify(byte[] in, int off, int len, int sum)
+    {
+        if (len != 2)
+            return GMNStatus.CHECK_WRONG_LENGTH;
+        int c1 = GMN.cset32Value(in[off] & 0xFF);
+        int c2 = GMN.cset32Value(in[off + 1] & 0xFF);
+        if (c1 < 0 || c2 < 0)
+            return GMNStatus.INVALID_CHECK_CHARACTER;
+        return c1 * 32 + c2 == sum ? GMNStatus.VALID : GMNStatus.INCORRECT_CHECK;
+    }
+
+    /**
+     * Serve batches from standard input until it is closed.
+     *
+     * @param args optionally --stats to report the cache statistics on standard error on exit.
+     * @throws IOException if the coordinator cannot be communicated with.
+     */
+    public static void main(String[] args)
+        throws IOException
+    {
+        GMNShardWorker worker = new GMNShardWorker();
+        DataInputStream in = new DataInputStream(new BufferedInputStream(System.in, 1 << 16));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(System.out, 1 << 16));
+        byte[] buf = new byte[1 << 16];
+        while (true)
+        {
+            int len;
+            try
+            {
+                len = in.readInt();
+            }
+            catch (EOFException e)
+            {
+                break;
+            }
+            if (buf.length < len)
+                buf = new byte[Math.max(len, buf.length * 2)];
+            in.readFully(buf, 0, len);
+            byte[] result = worker.process(buf, len);
+            out.writeInt(result.length);
+            out.write(result);
+            out.flush();
+        }
+        out.close();
+        if (args.length > 0 && args[0].equals("--stats"))
+            System.err.println("GMNShardWorker: " + worker.gcpSums.size() + " GS1 Company Prefixes cached, " +
+                               worker.hits + " hits, " + worker.misses + " misses");
+    }
+
+}
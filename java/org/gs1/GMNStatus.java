@@ -0,0 +1,114 @@
+package org.gs1;
+
+/**
+ * Outcome of checking a GMN, used where reporting each problem by raising a
+ * {@link GS1Exception} would be impractical, such as when processing data in
+ * bulk. Each status other than {@link #VALID} and {@link #INCORRECT_CHECK}
+ * corresponds to one of the exceptions raised by the methods of {@link GMN}.
+ *
+ * @author Copyright (c) 2019-2021 GS1 AISBL.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+public enum GMNStatus {
+
+    /**
+     * The GMN is well formed and, if complete, has a valid check character pair.
+     */
+    VALID(0),
+
+    /**
+     * The GMN is well formed but its check character pair is not valid.
+     */
+    INCORRECT_CHECK(1),
+
+    /**
+     * The input is too short.
+     */
+    TOO_SHORT(2),
+
+    /**
+     * The input is too long.
+     */
+    TOO_LONG(3),
+
+    /**
+     * At least one of the first five characters is not a digit or, where the
+     * GS1 Company Prefix is provided separately, it is not entirely digits.
+     */
+    NON_NUMERIC_GCP(4),
+
+    /**
+     * A character outside of the encodable character set appears before the check character pair.
+     */
+    INVALID_CHARACTER(5),
+
+    /**
+     * A check character is outside of the character set used for the check character pair.
+     */
+    INVALID_CHECK_CHARACTER(6),
+
+    /**
+     * The GS1 Company Prefix, provided separately, is too short.
+     */
+    GCP_TOO_SHORT(7),
+
+    /**
+     * The GS1 Company Prefix, provided separately, is too long.
+     */
+    GCP_TOO_LONG(8),
+
+    /**
+     * The model reference, provided separately, is empty.
+     */
+    MODEL_EMPTY(9),
+
+    /**
+     * The check character pair, provided separately, is not two characters long.
+     */
+    CHECK_WRONG_LENGTH(10);
+
+    private final int code;
+
+    GMNStatus(int code)
+    {
+        this.code = code;
+    }
+
+    /**
+     * @return a stable numeric code for the status, suitable for storage or transmission.
+     */
+    public int code()
+    {
+        return code;
+    }
+
+    /**
+     * Return the status having the given numeric code.
+     *
+     * @param code a numeric code as returned by {@link #code()}.
+     * @return the corresponding status.
+     * @throws IllegalArgumentException if the code is unknown.
+     */
+    public static GMNStatus fromCode(int code)
+    {
+        for (GMNStatus s : values())
+            if (s.code == code)
+                return s;
+        throw new IllegalArgumentException("Unknown status code: " + code);
+    }
+
+}
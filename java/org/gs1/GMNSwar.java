@@ -0,0 +1,126 @@
+package org.gs1;
+
+/**
+ * Word-at-a-time character set screening for GMNs held as ASCII bytes.
+ *
+ * <p>Eight bytes are loaded into a long and tested together with bitwise
+ * arithmetic (SIMD within a register), so that input made entirely of valid
+ * characters is accepted, and garbage rejected, without examining each byte
+ * individually. The lane tests are exact, so the position of the first
+ * failing byte of a word is found from its mask rather than by rescanning.
+ * Bytes that do not fill a word are examined individually using the lookup
+ * tables of {@link GMN}.
+ *
+ * <p>Each lane test relies on setting the high bit of every byte before
+ * subtracting a per-byte constant: since no lane can then borrow from its
+ * neighbour, the high bit of each lane remains set exactly when the byte,
+ * with its own high bit cleared, is at least that constant.
+ *
+ * @author Copyright (c) 2019-2021 GS1 AISBL.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+final class GMNSwar {
+
+    // The low and high bit of every byte
+    private final static long L = 0x0101010101010101L;
+    private final static long H = 0x8080808080808080L;
+
+    private GMNSwar() {}
+
+    // Little-endian load of the eight bytes at the given offset, so that the
+    // first byte occupies the lowest lane
+    static long word(byte[] b, int off)
+    {
+        return (b[off] & 0xFFL)
+             | (b[off + 1] & 0xFFL) << 8
+             | (b[off + 2] & 0xFFL) << 16
+             | (b[off + 3] & 0xFFL) << 24
+             | (b[off + 4] & 0xFFL) << 32
+             | (b[off + 5] & 0xFFL) << 40
+             | (b[off + 6] & 0xFFL) << 48
+             | (b[off + 7] & 0xFFL) << 56;
+    }
+
+    // High bit set in each lane whose low seven bits are at least n, given the
+    // word with all high bits already set
+    private static long ge(long t, int n)
+    {
+        return (t - n * L) & H;
+    }
+
+    // High bit set in each lane whose byte is not in cset82
+    static long nonCset82(long w)
+    {
+        long t = w | H;
+        return (w & H)                                  // Not ASCII
+             | (~ge(t, 0x21) & H)                       // Control characters and space
+             | (ge(t, 0x23) & ~ge(t, 0x25))             // # $
+             | (ge(t, 0x40) & ~ge(t, 0x41))             // @
+             | (ge(t, 0x5B) & ~ge(t, 0x5F))             // [ \ ] ^
+             | (ge(t, 0x60) & ~ge(t, 0x61))             // `
+             | ge(t, 0x7B);                             // { | } ~ DEL
+    }
+
+    // High bit set in each lane whose byte is not a digit
+    static long nonDigit(long w)
+    {
+        long t = w | H;
+        return (w & H) | (~ge(t, '0') & H) | ge(t, '9' + 1);
+    }
+
+    // Position of the first lane flagged in a non-zero mask
+    private static int firstLane(long mask)
+    {
+        return Long.numberOfTrailingZeros(mask) >>> 3;
+    }
+
+    // Offset relative to off of the first byte not in cset82, or -1 if there is none
+    static int firstNonCset82(byte[] b, int off, int len)
+    {
+        int i = 0;
+        for (; i + 8 <= len; i += 8)
+        {
+            long mask = nonCset82(word(b, off + i));
+            if (mask != 0)
+                return i + firstLane(mask);
+        }
+        for (; i < len; i++)
+            if (GMN.cset82Value(b[off + i] & 0xFF) < 0)
+                return i;
+        return -1;
+    }
+
+    // Offset relative to off of the first byte that is not a digit, or -1 if there is none
+    static int firstNonDigit(byte[] b, int off, int len)
+    {
+        int i = 0;
+        for (; i + 8 <= len; i += 8)
+        {
+            long mask = nonDigit(word(b, off + i));
+            if (mask != 0)
+                return i + firstLane(mask);
+        }
+        for (; i < len; i++)
+        {
+            int c = b[off + i];
+            if (c < '0' || c > '9')
+                return i;
+        }
+        return -1;
+    }
+
+}
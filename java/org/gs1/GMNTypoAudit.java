@@ -0,0 +1,494 @@
+package org.gs1;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Audits a catalogue of GMNs for pairs of entries that a single data entry
+ * error could turn one into the other: a substituted character, two adjacent
+ * characters transposed, or a character inserted or omitted. When both
+ * entries of such a pair are valid, the error passes check character
+ * verification.
+ *
+ * <p>The check character pair detects every single substitution and adjacent
+ * transposition confined to the GS1 Company Prefix and model reference, so
+ * between valid GMNs such pairs arise only when the check characters are
+ * involved or the lengths differ. Catalogues that have not been verified may
+ * contain others. All are reported.
+ *
+ * <p>Rather than comparing every pair of entries, each entry is keyed by a
+ * hash of itself and of each of its single-character deletions: any two
+ * entries within one edit share a key. Keys are packed together with the
+ * entry index into longs, sorted, and only entries sharing a key are
+ * compared. The catalogue is held as contiguous bytes and the keys are
+ * processed in partitions of the hash space to bound memory, with key
+ * generation, sorting and comparison all in parallel.
+ *
+ * @author Copyright (c) 2019-2021 GS1 AISBL.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+public final class GMNTypoAudit {
+
+    /**
+     * The single edit relating the entries of a pair.
+     */
+    public enum Kind
+    {
+        /**
+         * The entries are identical.
+         */
+        DUPLICATE,
+
+        /**
+         * The entries differ in one character.
+         */
+        SUBSTITUTION,
+
+        /**
+         * The entries differ by exchanging two adjacent characters.
+         */
+        TRANSPOSITION,
+
+        /**
+         * The second entry is the first with one character inserted, or vice versa.
+         */
+        INSERTION
+    }
+
+    /**
+     * A pair of catalogue entries related by a single edit.
+     */
+    public final static class Pair
+    {
+        private final int first;
+        private final int second;
+        private final String firstGmn;
+        private final String secondGmn;
+        private final Kind kind;
+        private final int position;
+
+        Pair(int first, int second, String firstGmn, String secondGmn, Kind kind, int position)
+        {
+            this.first = first;
+            this.second = second;
+            this.firstGmn = firstGmn;
+            this.secondGmn = secondGmn;
+            this.kind = kind;
+            this.position = position;
+        }
+
+        /**
+         * @return the index within the catalogue of the first entry.
+         */
+        public int getFirst()
+        {
+            return first;
+        }
+
+        /**
+         * @return the index within the catalogue of the second entry.
+         */
+        public int getSecond()
+        {
+            return second;
+        }
+
+        /**
+         * @return the first entry.
+         */
+        public String getFirstGmn()
+        {
+            return firstGmn;
+        }
+
+        /**
+         * @return the second entry.
+         */
+        public String getSecondGmn()
+        {
+            return secondGmn;
+        }
+
+        /**
+         * @return the edit relating the entries.
+         */
+        public Kind getKind()
+        {
+            return kind;
+        }
+
+        /**
+         * @return the zero-based position of the edit, or -1 for duplicates.
+         */
+        public int getPosition()
+        {
+            return position;
+        }
+
+        @Override
+        public String toString()
+        {
+            return first + "\t" + firstGmn + "\t" + second + "\t" + secondGmn + "\t" + kind + "\t" + (position + 1);
+        }
+    }
+
+    /**
+     * Approximate number of keys sorted together in each partition.
+     */
+    private final static long KEYS_PER_PARTITION = 1 << 24;
+
+    private final static long MULTIPLIER = 0x9E3779B97F4A7C15L;
+
+    private final byte[] arena;
+    private final int[] start;
+    private final int n;
+    private final int threads;
+    private final long[] powers;
+
+    private GMNTypoAudit(byte[] arena, int[] start, int n, int threads)
+    {
+        this.arena = arena;
+        this.start = start;
+        this.n = n;
+        this.threads = threads;
+        int longest = 0;
+        for (int i = 0; i < n; i++)
+            longest = Math.max(longest, start[i + 1] - start[i]);
+        powers = new long[longest + 1];
+        powers[0] = 1;
+        for (int i = 1; i <= longest; i++)
+            powers[i] = powers[i - 1] * MULTIPLIER;
+    }
+
+    /**
+     * Audit a catalogue.
+     *
+     * @param gmns the catalogue entries.
+     * @param threads number of threads.
+     * @return the pairs of entries related by a single edit, ordered by entry index.
+     */
+    public static List<Pair> audit(List<String> gmns, int threads)
+    {
+        int total = 0;
+        for (String gmn : gmns)
+            total += gmn.length();
+        byte[] arena = new byte[total];
+        int[] start = new int[gmns.size() + 1];
+        int off = 0;
+        for (int i = 0; i < gmns.size(); i++)
+        {
+            byte[] b = gmns.get(i).getBytes(StandardCharsets.ISO_8859_1);
+            System.arraycopy(b, 0, arena, off, b.length);
+            off += b.length;
+            start[i + 1] = off;
+        }
+        return new GMNTypoAudit(arena, start, gmns.size(), threads).run();
+    }
+
+    /**
+     * Audit a catalogue held in a file of newline separated GMNs. Blank lines
+     * are ignored and are not counted as entries.
+     *
+     * @param file the catalogue file.
+     * @param threads number of threads.
+     * @return the pairs of entries related by a single edit, ordered by entry index.
+     * @throws IOException if the file cannot be read.
+     */
+    public static List<Pair> audit(Path file, int threads)
+        throws IOException
+    {
+        // The entries are compacted in place, dropping the line terminators
+        byte[] arena = Files.readAllBytes(file);
+        int[] start = new int[1024];
+        int n = 0, len = 0;
+        boolean blank = true;
+        for (int i = 0; i <= arena.length; i++)
+        {
+            byte c = i < arena.length ? arena[i] : (byte) '\n';
+            if (c != '\n' && c != '\r')
+            {
+                arena[len++] = c;
+                blank = false;
+                continue;
+            }
+            if (blank)
+                continue;
+            if (++n + 1 > start.length)
+                start = Arrays.copyOf(start, start.length * 2);
+            start[n] = len;
+            blank = true;
+        }
+        return new GMNTypoAudit(arena, start, n, threads).run();
+    }
+
+    private List<Pair> run()
+    {
+        if (n < 2)
+            return new ArrayList<>();
+
+        // Pack the hash above the entry index, dropping the bits that select the partition
+        int idBits = 32 - Integer.numberOfLeadingZeros(n - 1);
+        long totalKeys = (long) start[n] + n;
+        int partitionBits = 0;
+        while ((totalKeys >>> partitionBits) > KEYS_PER_PARTITION)
+            partitionBits++;
+        long idMask = (1L << idBits) - 1;
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try
+        {
+            Set<Long> seen = new HashSet<>();
+            List<Pair> pairs = new ArrayList<>();
+            long[][] local = new long[threads][1024];
+            int[] counts = new int[threads];
+            for (int partition = 0; partition < 1 << partitionBits; partition++)
+            {
+                // Generate the keys of the partition
+                List<Future<?>> work = new ArrayList<>();
+                for (int t = 0; t < threads; t++)
+                {
+                    int thread = t;
+                    int from = (int) ((long) n * t / threads), to = (int) ((long) n * (t + 1) / threads);
+                    int p = partition, pBits = partitionBits;
+                    work.add(pool.submit(() -> {
+                        counts[thread] = keys(from, to, p, pBits, idMask, local, thread);
+                    }));
+                }
+                await(work);
+
+                int total = 0;
+                for (int t = 0; t < threads; t++)
+                    total += counts[t];
+                long[] keys = new long[total];
+                int off = 0;
+                for (int t = 0; t < threads; t++)
+                {
+                    System.arraycopy(local[t], 0, keys, off, counts[t]);
+                    off += counts[t];
+                }
+                Arrays.parallelSort(keys);
+
+                // Compare the entries sharing each key
+                List<Future<List<long[]>>> found = new ArrayList<>();
+                for (int t = 0; t < threads; t++)
+                {
+                    int from = (int) ((long) total * t / threads), to = (int) ((long) total * (t + 1) / threads);
+                    found.add(pool.submit(() -> compare(keys, from, to, idMask)));
+                }
+                for (Future<List<long[]>> f : found)
+                    for (long[] pair : getQuietly(f))
+                        if (seen.add(pair[0]))
+                            pairs.add(pair((int) (pair[0] >>> 32), (int) pair[0], Kind.values()[(int) (pair[1] >>> 32)], (int) pair[1]));
+            }
+
+            Collections.sort(pairs, (a, b) -> a.first != b.first ? Integer.compare(a.first, b.first) : Integer.compare(a.second, b.second));
+            return pairs;
+        }
+        finally
+        {
+            pool.shutdownNow();
+        }
+    }
+
+    // Generate the keys within a partition for a range of entries, returning their number
+    private int keys(int from, int to, int partition, int partitionBits, long idMask, long[][] local, int thread)
+    {
+        long[] out = local[thread];
+        int count = 0;
+        long[] prefix = new long[powers.length];
+        long[] hashes = new long[powers.length];
+        for (int id = from; id < to; id++)
+        {
+            int s = start[id], len = start[id + 1] - s;
+
+            // prefix[i] hashes the first i characters
+            for (int i = 0; i < len; i++)
+                prefix[i + 1] = prefix[i] * MULTIPLIER + (arena[s + i] & 0xFF) + 1;
+
+            // The entry itself, then each deletion, combining the hash of the
+            // characters before the deleted one with those after it
+            hashes[len] = mix(prefix[len] + len);
+            long suffix = 0;
+            for (int i = len - 1; i >= 0; i--)
+            {
+                hashes[i] = mix(prefix[i] * powers[len - 1 - i] + suffix + len - 1);
+                suffix += ((arena[s + i] & 0xFF) + 1) * powers[len - 1 - i];
+            }
+
+            for (int i = 0; i <= len; i++)
+            {
+                long h = hashes[i];
+                if (partitionBits > 0 && (int) (h >>> (64 - partitionBits)) != partition)
+                    continue;
+                if (count == out.length)
+                    local[thread] = out = Arrays.copyOf(out, out.length * 2);
+                out[count++] = ((h << partitionBits) & ~idMask) | id;
+            }
+        }
+        return count;
+    }
+
+    // Compare the entries of each run of equal keys starting within a range
+    private List<long[]> compare(long[] keys, int from, int to, long idMask)
+    {
+        List<long[]> found = new ArrayList<>();
+        while (from > 0 && from < to && (keys[from] & ~idMask) == (keys[from - 1] & ~idMask))
+            from++;
+        for (int i = from; i < to; )
+        {
+            long hash = keys[i] & ~idMask;
+            int end = i + 1;
+            while (end < keys.length && (keys[end] & ~idMask) == hash)
+                end++;
+            for (int a = i; a < end; a++)
+                for (int b = a + 1; b < end; b++)
+                {
+                    int x = (int) (keys[a] & idMask), y = (int) (keys[b] & idMask);
+                    if (x == y)
+                        continue;
+                    long edit = classify(Math.min(x, y), Math.max(x, y));
+                    if (edit >= 0)
+                        found.add(new long[] {(long) Math.min(x, y) << 32 | Math.max(x, y), edit});
+                }
+            i = end;
+        }
+        return found;
+    }
+
+    // The kind and position of the single edit relating two entries, packed
+    // as kind << 32 | position, or -1 if they are not related by one edit
+    private long classify(int x, int y)
+    {
+        int xs = start[x], xl = start[x + 1] - xs;
+        int ys = start[y], yl = start[y + 1] - ys;
+        int i = 0;
+        while (i < Math.min(xl, yl) && arena[xs + i] == arena[ys + i])
+            i++;
+
+        if (xl == yl)
+        {
+            if (i == xl)
+                return (long) Kind.DUPLICATE.ordinal() << 32 | 0xFFFFFFFFL;
+            if (equal(xs + i + 1, ys + i + 1, xl - i - 1))
+                return (long) Kind.SUBSTITUTION.ordinal() << 32 | i;
+            if (i + 1 < xl && arena[xs + i] == arena[ys + i + 1] && arena[xs + i + 1] == arena[ys + i] &&
+                equal(xs + i + 2, ys + i + 2, xl - i - 2))
+                return (long) Kind.TRANSPOSITION.ordinal() << 32 | i;
+            return -1;
+        }
+
+        // The longer entry without the character at the first difference
+        if (xl == yl + 1 && equal(xs + i + 1, ys + i, yl - i))
+            return (long) Kind.INSERTION.ordinal() << 32 | i;
+        if (yl == xl + 1 && equal(xs + i, ys + i + 1, xl - i))
+            return (long) Kind.INSERTION.ordinal() << 32 | i;
+        return -1;
+    }
+
+    private boolean equal(int a, int b, int len)
+    {
+        for (int i = 0; i < len; i++)
+            if (arena[a + i] != arena[b + i])
+                return false;
+        return true;
+    }
+
+    private Pair pair(int x, int y, Kind kind, int position)
+    {
+        return new Pair(x, y, entry(x), entry(y), kind, position);
+    }
+
+    private String entry(int id)
+    {
+        return new String(arena, start[id], start[id + 1] - start[id], StandardCharsets.ISO_8859_1);
+    }
+
+    // Finalise a polynomial hash so that its high bits are well distributed
+    private static long mix(long h)
+    {
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private static void await(List<Future<?>> work)
+    {
+        for (Future<?> f : work)
+            getQuietly(f);
+    }
+
+    private static <T> T getQuietly(Future<T> f)
+    {
+        try
+        {
+            return f.get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted during the audit.", e);
+        }
+        catch (ExecutionException e)
+        {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Audit a catalogue file from the command line, printing each pair as the
+     * entry indexes and values, the kind of edit and its one-based position.
+     *
+     * <p>Usage: java org.gs1.GMNTypoAudit catalogue [threads]
+     *
+     * @param args the command line arguments.
+     * @throws IOException if the file cannot be read.
+     */
+    public static void main(String[] args)
+        throws IOException
+    {
+        if (args.length < 1 || args.length > 2)
+        {
+            System.err.println("Usage: java org.gs1.GMNTypoAudit catalogue [threads]");
+            System.exit(1);
+        }
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        long started = System.nanoTime();
+        List<Pair> pairs = audit(Paths.get(args[0]), threads);
+        for (Pair p : pairs)
+            System.out.println(p);
+        System.err.println(pairs.size() + " pairs found in " + String.format("%.1f", (System.nanoTime() - started) / 1e9) + "s");
+    }
+
+}